@@ -0,0 +1,170 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.QueuePolicy;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds traces to a trace set on a background thread, so callers do not wait for the file system.
+ * Traces are handed to the background thread through a bounded queue. When the queue is full, the {@link QueuePolicy}
+ * decides whether the caller waits, or the trace is rejected or dropped.
+ */
+final class AsyncTraceWriter {
+    private static final String QUEUE_FULL = "The queue of the background writer is full (%d traces)";
+    private static final String WRITE_FAILED = "Writing an earlier trace failed";
+    private static final String WRITER_CLOSED = "The background writer has been closed";
+    private static final Request END = new Request(null);
+
+    private final TraceSet traceSet;
+    private final BlockingQueue<Request> queue;
+    private final int capacity;
+    private final QueuePolicy policy;
+    private final Thread thread;
+    private volatile IOException failure;   //the first error writing to the file, after which no traces are added
+    private boolean closed;                 //guarded by this, so no trace is queued after the end of the queue
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong totalStallNanos = new AtomicLong();
+    private final AtomicLong maxStallNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+
+    AsyncTraceWriter(TraceSet traceSet, int capacity, QueuePolicy policy) {
+        this.traceSet = traceSet;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.thread = new Thread(this::run, "TraceSet writer " + traceSet.getPath().getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a trace to be added by the background thread. Traces submitted after the writer has been closed are
+     * rejected.
+     * @param trace the trace to add, which should not be modified afterwards
+     * @return a future which completes when the trace has been added to the trace set
+     */
+    synchronized CompletableFuture<Void> submit(Trace trace) {
+        Request request = new Request(trace);
+        if (closed) {
+            rejected.incrementAndGet();
+            request.future.completeExceptionally(new RejectedExecutionException(WRITER_CLOSED));
+            return request.future;
+        }
+        if (queue.offer(request)) {
+            return request.future;
+        }
+        switch (policy) {
+            case FAIL:
+                rejected.incrementAndGet();
+                request.future.completeExceptionally(new RejectedExecutionException(String.format(QUEUE_FULL, queue.size())));
+                break;
+            case DROP:
+                dropped.incrementAndGet();
+                request.future.cancel(false);
+                break;
+            default:
+                //the background thread does not need the lock to make room, so close waits until the trace is queued
+                long start = System.nanoTime();
+                try {
+                    queue.put(request);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    request.future.completeExceptionally(ex);
+                }
+                long stall = System.nanoTime() - start;
+                stalls.incrementAndGet();
+                totalStallNanos.addAndGet(stall);
+                maxStallNanos.accumulateAndGet(stall, Math::max);
+        }
+        return request.future;
+    }
+
+    private void run() {
+        try {
+            for (Request request = queue.take(); request != END; request = queue.take()) {
+                write(request);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Request request) {
+        if (failure != null) {
+            failed.incrementAndGet();
+            request.future.completeExceptionally(new IOException(WRITE_FAILED, failure));
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            traceSet.write(request.trace);
+            written.incrementAndGet();
+            request.future.complete(null);
+        } catch (IOException ex) {
+            failure = ex;
+            failed.incrementAndGet();
+            request.future.completeExceptionally(ex);
+        } catch (RuntimeException | TRSFormatException ex) {
+            failed.incrementAndGet();
+            request.future.completeExceptionally(ex);
+        }
+        maxWriteNanos.accumulateAndGet(System.nanoTime() - start, Math::max);
+    }
+
+    /**
+     * Wait until all queued traces have been added, and stop the background thread. Any trace which is still queued
+     * afterwards, for example because the background thread was interrupted, is rejected.
+     * @throws IOException if adding any of the traces failed because of a write error
+     */
+    void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        boolean interrupted = false;
+        boolean ended = false;
+        while (!ended || thread.isAlive()) {
+            try {
+                if (!ended) {
+                    queue.put(END);
+                    ended = true;
+                }
+                thread.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        for (Request request = queue.poll(); request != null; request = queue.poll()) {
+            if (request != END) {
+                rejected.incrementAndGet();
+                request.future.completeExceptionally(new RejectedExecutionException(WRITER_CLOSED));
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+    }
+
+    AsyncWriteStatistics statistics() {
+        return new AsyncWriteStatistics(queue.size(), capacity,
+                written.get(), failed.get(), dropped.get(), rejected.get(),
+                stalls.get(), totalStallNanos.get(), maxStallNanos.get(), maxWriteNanos.get());
+    }
+
+    private static final class Request {
+        private final Trace trace;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Request(Trace trace) {
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.riscure.trs;
+
+/**
+ * A snapshot of the state of the background writer used by {@link TraceSet#addAsync(Trace)}.
+ * All durations are in nanoseconds.
+ */
+public final class AsyncWriteStatistics {
+    private static final String TO_STRING_FORMAT = "AsyncWriteStatistics{queueDepth=%d, capacity=%d, written=%d, " +
+            "failed=%d, dropped=%d, rejected=%d, stalls=%d, totalStallNanos=%d, maxStallNanos=%d, maxWriteNanos=%d}";
+
+    private final int queueDepth;
+    private final int capacity;
+    private final long written;
+    private final long failed;
+    private final long dropped;
+    private final long rejected;
+    private final long stalls;
+    private final long totalStallNanos;
+    private final long maxStallNanos;
+    private final long maxWriteNanos;
+
+    AsyncWriteStatistics(int queueDepth, int capacity, long written, long failed, long dropped, long rejected,
+                         long stalls, long totalStallNanos, long maxStallNanos, long maxWriteNanos) {
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+        this.written = written;
+        this.failed = failed;
+        this.dropped = dropped;
+        this.rejected = rejected;
+        this.stalls = stalls;
+        this.totalStallNanos = totalStallNanos;
+        this.maxStallNanos = maxStallNanos;
+        this.maxWriteNanos = maxWriteNanos;
+    }
+
+    /**
+     * @return the number of traces waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the maximum number of traces that can wait in the queue
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of traces added to the trace set by the background writer
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of traces the background writer failed to add, because they were invalid or writing failed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return the number of traces discarded because the queue was full, using {@link com.riscure.trs.enums.QueuePolicy#DROP}
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of traces rejected because the queue was full, using {@link com.riscure.trs.enums.QueuePolicy#FAIL}
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of times a caller had to wait for room in the queue, using {@link com.riscure.trs.enums.QueuePolicy#BLOCK}
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    /**
+     * @return the total time callers waited for room in the queue
+     */
+    public long getTotalStallNanos() {
+        return totalStallNanos;
+    }
+
+    /**
+     * @return the longest time a single caller waited for room in the queue
+     */
+    public long getMaxStallNanos() {
+        return maxStallNanos;
+    }
+
+    /**
+     * @return the longest time the background writer took to add a single trace, which includes any time spent
+     * waiting for the file system
+     */
+    public long getMaxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(TO_STRING_FORMAT, queueDepth, capacity, written, failed, dropped, rejected,
+                stalls, totalStallNanos, maxStallNanos, maxWriteNanos);
+    }
+}
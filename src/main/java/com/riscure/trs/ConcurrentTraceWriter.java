@@ -0,0 +1,335 @@
+package com.riscure.trs;
+
+import com.riscure.trs.parameter.trace.TraceParameterEncoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConcurrentTraceWriter adds traces from many producer threads to a single trace set. The traces are encoded in
+ * parallel on a pool of worker threads, after which a single sequencer adds the encoded traces to the file in a
+ * deterministic order:
+ * <ul>
+ *     <li>{@link CommitOrder#SUBMISSION}: in the order in which the traces were submitted</li>
+ *     <li>{@link CommitOrder#INDEX}: in the order of the index assigned to every trace by the caller</li>
+ * </ul>
+ * Only a limited number of traces can be submitted ahead of the next trace to be added to the file. Submitting a trace
+ * beyond that window blocks until the window moves on.
+ *
+ * A writer is created with {@link TraceSet#concurrentWriter(int, CommitOrder)}. All methods of a writer are thread
+ * safe. Closing the writer waits until every submitted trace is added, but does not close the trace set.
+ */
+public class ConcurrentTraceWriter implements AutoCloseable {
+    private static final String WRITER_CLOSED = "The writer has been closed.";
+    private static final String WRONG_COMMIT_ORDER = "The writer commits traces in %s order.";
+    private static final String INVALID_THREADS = "The number of threads should be positive, but was %d";
+    private static final String INVALID_INDEX = "Trace index %d has already been submitted";
+    private static final String NEGATIVE_INDEX = "Trace index %d is negative";
+    private static final String WRITE_FAILED = "Writing an earlier trace failed";
+    private static final String CLOSE_INTERRUPTED = "Interrupted while waiting for the submitted traces to be added";
+    private static final int WINDOW_PER_THREAD = 64;
+
+    /**
+     * The order in which encoded traces are added to the file
+     */
+    public enum CommitOrder {
+        /** in the order in which the traces were submitted */
+        SUBMISSION,
+        /** in the order of the index assigned by the caller, starting at zero */
+        INDEX
+    }
+
+    private final TraceSet traceSet;
+    private final CommitOrder order;
+    private final int window;
+    private final ExecutorService workers;
+    private final ThreadLocal<TraceParameterEncoder> encoders;
+    private final ConcurrentLinkedQueue<ByteBuffer> spareRecords = new ConcurrentLinkedQueue<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    private final ReentrantLock sequencer = new ReentrantLock();
+    private final Map<Long, Pending> pending = new HashMap<>();    //submitted traces which have not been added yet
+    private long nextSubmission;    //the index given to the next trace submitted in submission order
+    private long nextCommit;        //the index of the next trace to add to the file
+    private int waiting;            //the number of submitting threads waiting for room in the window
+    private boolean closed;
+    private IOException failure;    //the first error writing to the file, after which no traces are added anymore
+
+    ConcurrentTraceWriter(TraceSet traceSet, int threads, CommitOrder order) {
+        if (threads <= 0) throw new IllegalArgumentException(String.format(INVALID_THREADS, threads));
+        this.traceSet = traceSet;
+        this.order = order;
+        this.window = threads * WINDOW_PER_THREAD;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TraceSet encoder " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.encoders = ThreadLocal.withInitial(traceSet::newParameterEncoder);
+    }
+
+    /**
+     * Submit a trace, which is added to the trace set after all traces submitted before it.
+     * This requires the writer to commit traces in {@link CommitOrder#SUBMISSION} order.
+     * @param trace the trace to add
+     * @return a future which completes when the trace has been added, or completes exceptionally if the trace is invalid
+     * @throws IOException if adding an earlier trace to the file failed
+     * @throws TRSFormatException if the first trace submitted does not result in a valid header
+     * @throws InterruptedException if the calling thread was interrupted while waiting for room in the window
+     * @throws IllegalArgumentException if the writer has been closed
+     * @throws IllegalStateException if the writer commits traces in index order
+     */
+    public CompletableFuture<Void> submit(Trace trace) throws IOException, TRSFormatException, InterruptedException {
+        if (order != CommitOrder.SUBMISSION) throw new IllegalStateException(String.format(WRONG_COMMIT_ORDER, order));
+        return enqueue(-1, trace);
+    }
+
+    /**
+     * Submit a trace, which is added to the trace set after all traces with a lower index. Indices start at zero for
+     * the first trace written by this writer, and every index should be submitted exactly once.
+     * This requires the writer to commit traces in {@link CommitOrder#INDEX} order.
+     * @param index the position of the trace among the traces written by this writer
+     * @param trace the trace to add
+     * @return a future which completes when the trace has been added, or completes exceptionally if the trace is invalid
+     * @throws IOException if adding an earlier trace to the file failed
+     * @throws TRSFormatException if the first trace submitted does not result in a valid header
+     * @throws InterruptedException if the calling thread was interrupted while waiting for room in the window
+     * @throws IllegalArgumentException if the writer has been closed, or the index is negative or has already been submitted
+     * @throws IllegalStateException if the writer commits traces in submission order
+     */
+    public CompletableFuture<Void> submit(long index, Trace trace) throws IOException, TRSFormatException, InterruptedException {
+        if (order != CommitOrder.INDEX) throw new IllegalStateException(String.format(WRONG_COMMIT_ORDER, order));
+        if (index < 0) throw new IllegalArgumentException(String.format(NEGATIVE_INDEX, index));
+        return enqueue(index, trace);
+    }
+
+    /**
+     * @param index the index assigned by the caller, or -1 to assign the next index in submission order
+     */
+    private CompletableFuture<Void> enqueue(long index, Trace trace) throws IOException, TRSFormatException, InterruptedException {
+        Pending entry = new Pending(trace);
+        lock.lock();
+        try {
+            if (closed) throw new IllegalArgumentException(WRITER_CLOSED);
+            if (failure != null) throw new IOException(WRITE_FAILED, failure);
+            //the layout of every trace is based on the first trace, so it is fixed before any trace is encoded
+            traceSet.initializeWriter(trace);
+            if (index < 0) {
+                index = nextSubmission++;
+            } else if (index < nextCommit || pending.containsKey(index)) {
+                throw new IllegalArgumentException(String.format(INVALID_INDEX, index));
+            }
+            pending.put(index, entry);
+            awaitWindow(index, entry);
+            workers.execute(() -> encode(entry));
+        } finally {
+            lock.unlock();
+        }
+        return entry.future;
+    }
+
+    /**
+     * Wait until the trace with the given index is within the window. Must be called while holding the lock.
+     */
+    private void awaitWindow(long index, Pending entry) throws InterruptedException {
+        waiting++;
+        try {
+            while (index >= nextCommit + window && failure == null) {
+                progress.await();
+            }
+        } catch (InterruptedException ex) {
+            //the trace is skipped, so the traces after it can still be added
+            entry.error = ex;
+            entry.encoded = true;
+            throw ex;
+        } finally {
+            waiting--;
+            progress.signalAll();
+        }
+    }
+
+    private void encode(Pending entry) {
+        ByteBuffer record = spareRecord();
+        try {
+            traceSet.encodeTrace(entry.trace, encoders.get(), record);
+            record.flip();
+            entry.record = record;
+        } catch (RuntimeException | TRSFormatException ex) {
+            //an invalid trace is skipped, so the traces after it can still be added
+            spareRecords.offer(record);
+            entry.error = ex;
+        }
+        lock.lock();
+        try {
+            entry.encoded = true;
+        } finally {
+            lock.unlock();
+        }
+        commitReady();
+    }
+
+    private ByteBuffer spareRecord() {
+        ByteBuffer record = spareRecords.poll();
+        if (record == null) {
+            record = ByteBuffer.allocate(Math.toIntExact(traceSet.encodedTraceSize())).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        record.clear();
+        return record;
+    }
+
+    /**
+     * Add all encoded traces that are next in line to the trace set. Only a single thread acts as the sequencer at any
+     * time; a thread that finishes encoding while another thread is adding traces leaves its trace for that thread.
+     */
+    private void commitReady() {
+        while (sequencer.tryLock()) {
+            try {
+                Pending next;
+                while ((next = takeNext()) != null) {
+                    commit(next);
+                }
+            } finally {
+                sequencer.unlock();
+            }
+            //another thread may have finished the next trace just before the sequencer was released
+            if (!isNextEncoded()) return;
+        }
+    }
+
+    private Pending takeNext() {
+        lock.lock();
+        try {
+            Pending next = pending.get(nextCommit);
+            return next != null && next.encoded ? pending.remove(nextCommit) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isNextEncoded() {
+        lock.lock();
+        try {
+            Pending next = pending.get(nextCommit);
+            return next != null && next.encoded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(Pending entry) {
+        Throwable error = entry.error;
+        if (entry.record != null) {
+            try {
+                if (failure == null) {
+                    traceSet.addEncoded(entry.record);
+                } else {
+                    error = new IOException(WRITE_FAILED, failure);
+                }
+            } catch (IOException | RuntimeException ex) {
+                error = ex;
+                lock.lock();
+                try {
+                    failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            spareRecords.offer(entry.record);
+        }
+        lock.lock();
+        try {
+            nextCommit++;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (error == null) {
+            entry.future.complete(null);
+        } else {
+            entry.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Wait until all submitted traces have been added to the trace set, and stop the worker threads.
+     * In index order, the indices submitted should form a contiguous range starting at zero; traces after a missing
+     * index are never added, and their futures complete exceptionally.
+     * @throws IOException if adding any of the traces to the file failed
+     * @throws InterruptedIOException if the calling thread was interrupted while waiting, in which case its interrupt
+     * status is restored
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!stopWorkers()) return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException(CLOSE_INTERRUPTED);
+            interrupted.initCause(ex);
+            throw interrupted;
+        }
+        commitReady();
+        lock.lock();
+        try {
+            for (Pending unreachable : pending.values()) {
+                unreachable.future.completeExceptionally(new IllegalStateException(WRITER_CLOSED));
+            }
+            pending.clear();
+            if (failure != null) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting traces, and wait until the worker threads have encoded all submitted traces
+     * @return false if the writer was already closed
+     */
+    private boolean stopWorkers() throws InterruptedException {
+        lock.lock();
+        try {
+            if (closed) return false;
+            closed = true;
+            //threads that were already waiting for room in the window still hand their trace to the workers
+            while (waiting > 0) {
+                progress.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdown();
+        while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+            //keep waiting for the remaining traces to be encoded
+        }
+        return true;
+    }
+
+    /**
+     * A submitted trace, on its way to the file
+     */
+    private static final class Pending {
+        private final Trace trace;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private boolean encoded;        //guarded by the lock
+        private ByteBuffer record;      //the encoded trace, or null if encoding failed
+        private Exception error;
+
+        private Pending(Trace trace) {
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.riscure.trs;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Provides the write buffer of a trace set that is written through memory mapped windows of its file, instead of
+ * through write calls. Traces are encoded straight into the current window. When a trace no longer fits, the next
+ * window is mapped directly after the bytes written so far, and the dirty pages of the previous window are forced to
+ * the storage device on a background thread.
+ *
+ * Windows never exceed the window size (unless a single trace is larger), so files larger than 2 GB are written
+ * through multiple windows. A window that extends past the end of the file grows the file.
+ *
+ * Once a window has been forced, it is unmapped right away, rather than when it is garbage collected. Otherwise the
+ * file could not be truncated to the bytes written when it is closed on Windows, and would remain in use afterwards.
+ */
+final class MappedWriteBuffer {
+    private static final String FLUSH_FAILED = "Writing the mapped traces to the storage device failed";
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private final FileChannel channel;
+    private final long expectedSize;        //the size the file is expected to have when all traces are written
+    private final int windowSize;
+    private final ExecutorService flusher;
+    private volatile RuntimeException failure;  //the first error forcing a window to the storage device
+
+    private MappedByteBuffer window;
+    private long windowStart;               //the byte index of the file where the current window starts
+
+    /**
+     * @param channel the channel of the file, which should be open for reading and writing
+     * @param expectedSize the size the file is expected to have when all traces are written
+     * @param windowSize the maximum number of bytes mapped at a time
+     * @param name the name of the file, used to name the background thread
+     */
+    MappedWriteBuffer(FileChannel channel, long expectedSize, int windowSize, String name) {
+        this.channel = channel;
+        this.expectedSize = expectedSize;
+        this.windowSize = windowSize;
+        this.flusher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TraceSet flusher " + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Map the next window of the file, which starts directly after the bytes written to the current window
+     * @param size the minimum number of bytes that should fit in the new window
+     * @return the new window, in little endian order, positioned at its start
+     * @throws IOException if mapping the file failed, or forcing an earlier window failed
+     */
+    MappedByteBuffer next(long size) throws IOException {
+        checkFailure();
+        long start = position();
+        long expectedRemaining = expectedSize - start;
+        //past the expected size, the file grows by whole windows rather than by single traces
+        long length = Math.max(size, expectedRemaining >= size ? Math.min(windowSize, expectedRemaining) : windowSize);
+        MappedByteBuffer retired = window;
+        window = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = start;
+        if (retired != null) {
+            flusher.execute(() -> {
+                force(retired);
+                unmap(retired);
+            });
+        }
+        return window;
+    }
+
+    /**
+     * @return the number of bytes written to the file
+     */
+    long position() {
+        return window == null ? 0 : windowStart + window.position();
+    }
+
+    private void force(MappedByteBuffer retired) {
+        try {
+            retired.force();
+        } catch (RuntimeException ex) {
+            if (failure == null) failure = ex;
+        }
+    }
+
+    /**
+     * Release the memory of a window straight away. Afterwards, the window should not be accessed at all.
+     */
+    private static void unmap(MappedByteBuffer window) {
+        if (UNMAPPER != null) UNMAPPER.accept(window);
+    }
+
+    /**
+     * There is no public API to unmap a buffer, so this uses the cleaner of the buffer on Java 8, and the unsupported
+     * {@code Unsafe.invokeCleaner} on later versions. If neither is available, windows are unmapped when they are
+     * garbage collected.
+     * @return a function unmapping a buffer, or null if buffers cannot be unmapped explicitly
+     */
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            //not available before Java 9
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> invoke(clean, invoke(cleaner, buffer));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException(FLUSH_FAILED, failure);
+    }
+
+    /**
+     * Force the current window to the storage device, wait until all earlier windows have been forced, and unmap all
+     * windows, so the file can be truncated. Afterwards, none of the windows returned by {@link #next(long)} should be
+     * accessed anymore.
+     * @return the number of bytes written to the file
+     * @throws IOException if forcing any of the windows failed
+     */
+    long close() throws IOException {
+        long end = position();
+        if (window != null) force(window);
+        flusher.shutdown();
+        boolean interrupted = false;
+        while (!flusher.isTerminated()) {
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (window != null) {
+            unmap(window);
+            window = null;
+        }
+        checkFailure();
+        return end;
+    }
+}
@@ -0,0 +1,273 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts samples between primitive arrays and their stored encoding.
+ * Samples that are stored exactly as they are held in the array are copied in bulk through a view of the buffer.
+ * Samples that need to be widened or narrowed are converted one at a time, from or to absolute positions of the buffer,
+ * which does not create any objects, so neither a {@link TraceCursor} nor adding a trace produces garbage. Whether
+ * narrowed samples fit their encoding is checked in a separate pass before anything is written.
+ *
+ * Decoding reads from absolute positions, so the position of the source buffer is never changed. Encoding is relative,
+ * so the position of the target buffer is advanced past the samples. If a sample does not fit, the position of the
+ * target buffer is left unchanged. All buffers are expected to be in little endian order.
+ */
+final class SampleCodec {
+    private static final String INCOMPATIBLE_ARRAY = "Samples coded as %s cannot be stored in a %s array without loss of information";
+    private static final String BYTE_TOO_SMALL = "Byte sample encoding too small";
+    private static final String SHORT_TOO_SMALL = "Short sample encoding too small";
+    private static final String ILLEGAL_ENCODING = "Illegal sample encoding";
+    private static final String UNSUPPORTED_ENCODING = "Sample encoding not supported: %s";
+
+    private SampleCodec() {
+    }
+
+    static void decode(ByteBuffer src, int position, Encoding encoding, int count, byte[] dst, int offset) {
+        if (encoding != Encoding.BYTE) {
+            throw new IllegalStateException(String.format(INCOMPATIBLE_ARRAY, encoding.name(), "byte"));
+        }
+        region(src, position, count, encoding).get(dst, offset, count);
+    }
+
+    static void decode(ByteBuffer src, int position, Encoding encoding, int count, short[] dst, int offset) {
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = src.get(position + k);
+                }
+                break;
+            case SHORT:
+                region(src, position, count, encoding).asShortBuffer().get(dst, offset, count);
+                break;
+            default:
+                throw new IllegalStateException(String.format(INCOMPATIBLE_ARRAY, encoding.name(), "short"));
+        }
+    }
+
+    static void decode(ByteBuffer src, int position, Encoding encoding, int count, int[] dst, int offset) {
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = src.get(position + k);
+                }
+                break;
+            case SHORT:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = src.getShort(position + Short.BYTES * k);
+                }
+                break;
+            case INT:
+                region(src, position, count, encoding).asIntBuffer().get(dst, offset, count);
+                break;
+            default:
+                throw new IllegalStateException(String.format(INCOMPATIBLE_ARRAY, encoding.name(), "int"));
+        }
+    }
+
+    static void decode(ByteBuffer src, int position, Encoding encoding, int count, float[] dst, int offset) {
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = src.get(position + k);
+                }
+                break;
+            case SHORT:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = src.getShort(position + Short.BYTES * k);
+                }
+                break;
+            case INT:
+                for (int k = 0; k < count; k++) {
+                    dst[offset + k] = (float) src.getInt(position + Integer.BYTES * k);
+                }
+                break;
+            case FLOAT:
+                region(src, position, count, encoding).asFloatBuffer().get(dst, offset, count);
+                break;
+            default:
+                throw new IllegalStateException(ILLEGAL_ENCODING);
+        }
+    }
+
+    static void encode(float[] samples, Encoding encoding, ByteBuffer target) throws TRSFormatException {
+        int start = target.position();
+        switch (encoding) {
+            case BYTE:
+                if (!fitsByte(samples)) throw new IllegalArgumentException(BYTE_TOO_SMALL);
+                for (int k = 0; k < samples.length; k++) {
+                    target.put(start + k, (byte) samples[k]);
+                }
+                break;
+            case SHORT:
+                if (!fitsShort(samples)) throw new IllegalArgumentException(SHORT_TOO_SMALL);
+                for (int k = 0; k < samples.length; k++) {
+                    target.putShort(start + Short.BYTES * k, (short) samples[k]);
+                }
+                break;
+            case INT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putInt(start + Integer.BYTES * k, (int) samples[k]);
+                }
+                break;
+            case FLOAT:
+                target.asFloatBuffer().put(samples);
+                break;
+            default:
+                throw unsupported(encoding);
+        }
+        advance(target, samples.length, encoding);
+    }
+
+    static void encode(byte[] samples, Encoding encoding, ByteBuffer target) throws TRSFormatException {
+        int start = target.position();
+        switch (encoding) {
+            case BYTE:
+                target.put(samples);
+                return;
+            case SHORT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putShort(start + Short.BYTES * k, samples[k]);
+                }
+                break;
+            case INT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putInt(start + Integer.BYTES * k, samples[k]);
+                }
+                break;
+            case FLOAT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putFloat(start + Float.BYTES * k, samples[k]);
+                }
+                break;
+            default:
+                throw unsupported(encoding);
+        }
+        advance(target, samples.length, encoding);
+    }
+
+    static void encode(short[] samples, Encoding encoding, ByteBuffer target) throws TRSFormatException {
+        int start = target.position();
+        switch (encoding) {
+            case BYTE:
+                if (!fits(samples, Byte.MIN_VALUE, Byte.MAX_VALUE)) throw new IllegalArgumentException(BYTE_TOO_SMALL);
+                for (int k = 0; k < samples.length; k++) {
+                    target.put(start + k, (byte) samples[k]);
+                }
+                break;
+            case SHORT:
+                target.asShortBuffer().put(samples);
+                break;
+            case INT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putInt(start + Integer.BYTES * k, samples[k]);
+                }
+                break;
+            case FLOAT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putFloat(start + Float.BYTES * k, samples[k]);
+                }
+                break;
+            default:
+                throw unsupported(encoding);
+        }
+        advance(target, samples.length, encoding);
+    }
+
+    static void encode(int[] samples, Encoding encoding, ByteBuffer target) throws TRSFormatException {
+        int start = target.position();
+        switch (encoding) {
+            case BYTE:
+                if (!fits(samples, Byte.MIN_VALUE, Byte.MAX_VALUE)) throw new IllegalArgumentException(BYTE_TOO_SMALL);
+                for (int k = 0; k < samples.length; k++) {
+                    target.put(start + k, (byte) samples[k]);
+                }
+                break;
+            case SHORT:
+                if (!fits(samples, Short.MIN_VALUE, Short.MAX_VALUE)) throw new IllegalArgumentException(SHORT_TOO_SMALL);
+                for (int k = 0; k < samples.length; k++) {
+                    target.putShort(start + Short.BYTES * k, (short) samples[k]);
+                }
+                break;
+            case INT:
+                target.asIntBuffer().put(samples);
+                break;
+            case FLOAT:
+                for (int k = 0; k < samples.length; k++) {
+                    target.putFloat(start + Float.BYTES * k, samples[k]);
+                }
+                break;
+            default:
+                throw unsupported(encoding);
+        }
+        advance(target, samples.length, encoding);
+    }
+
+    /**
+     * Copy samples that are already encoded as required. The position of the source buffer is not changed.
+     * @param samples the encoded samples, between the position and the limit of the buffer
+     */
+    static void encode(ByteBuffer samples, ByteBuffer target) {
+        int position = samples.position();
+        target.put(samples);
+        samples.position(position);
+    }
+
+    /**
+     * @return a new little endian buffer containing exactly the requested samples, with its position at zero
+     */
+    static ByteBuffer region(ByteBuffer src, int position, int count, Encoding encoding) {
+        ByteBuffer region = src.duplicate();
+        region.position(position);
+        region.limit(position + count * encoding.getSize());
+        return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static boolean fits(short[] samples, int min, int max) {
+        int lowest = 0;
+        int highest = 0;
+        for (short sample : samples) {
+            lowest = Math.min(lowest, sample);
+            highest = Math.max(highest, sample);
+        }
+        return min <= lowest && highest <= max;
+    }
+
+    private static boolean fits(int[] samples, int min, int max) {
+        int lowest = 0;
+        int highest = 0;
+        for (int sample : samples) {
+            lowest = Math.min(lowest, sample);
+            highest = Math.max(highest, sample);
+        }
+        return min <= lowest && highest <= max;
+    }
+
+    private static boolean fitsByte(float[] samples) {
+        for (float sample : samples) {
+            if (sample != (byte) sample) return false;
+        }
+        return true;
+    }
+
+    private static boolean fitsShort(float[] samples) {
+        for (float sample : samples) {
+            if (sample != (short) sample) return false;
+        }
+        return true;
+    }
+
+    private static void advance(ByteBuffer target, int count, Encoding encoding) {
+        target.position(target.position() + count * encoding.getSize());
+    }
+
+    private static TRSFormatException unsupported(Encoding encoding) {
+        if (encoding == Encoding.ILLEGAL) {
+            return new TRSFormatException(ILLEGAL_ENCODING);
+        }
+        return new TRSFormatException(String.format(UNSUPPORTED_ENCODING, encoding.name()));
+    }
+}
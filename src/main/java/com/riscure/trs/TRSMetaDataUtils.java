@@ -1,12 +1,14 @@
 package com.riscure.trs;
 
 import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
 import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
@@ -14,6 +16,7 @@ public class TRSMetaDataUtils {
     private static final String IGNORED_UNKNOWN_TAG = "ignored unknown metadata tag '%02X' while reading a TRS file\n";
     private static final String TAG_LENGTH_INVALID = "The length field following tag '%s' has value '%X', which is not between 0 and 0xffff";
     private static final String UNSUPPORTED_TAG_TYPE = "Unsupported tag type for tag '%s': %s";
+    private static final String TAG_LENGTH_UNEXPECTED = "The value of tag '%s' is stored in %d bytes, but %d bytes were expected";
     private static final String REWINDING_STREAM = "The output stream is not at the start of the file. Rewinding stream.";
 
     /**
@@ -29,6 +32,18 @@ public class TRSMetaDataUtils {
             System.err.println(REWINDING_STREAM);
             fos.getChannel().position(0);
         }
+        writeTRSMetaData((OutputStream) fos, metaData);
+    }
+
+    /**
+     * Writes the provided TRS metadata to the stream, starting at the current position of the stream.
+     *
+     * @param fos      the output stream
+     * @param metaData the metadata to write
+     * @throws IOException        if any write error occurs
+     * @throws TRSFormatException if the metadata contains unsupported tags
+     */
+    public static void writeTRSMetaData(OutputStream fos, TRSMetaData metaData) throws IOException, TRSFormatException {
         for (TRSTag tag : TRSTag.values()) {
             if (tag.equals(TRSTag.TRACE_BLOCK)) continue;                     //TRACE BLOCK should be the last write
             if (!tag.isRequired() && metaData.hasDefaultValue(tag)) continue; //ignore if default and not required
@@ -65,13 +80,13 @@ public class TRSMetaDataUtils {
         fos.write(TRSTag.TRACE_BLOCK.getLength());
     }
 
-    private static void writeInt(FileOutputStream fos, int value, int length) throws IOException {
+    private static void writeInt(OutputStream fos, int value, int length) throws IOException {
         for (int i = 0; i < length; i++) {
             fos.write((byte) (value >> (i * 8)));
         }
     }
 
-    private static void writeLength(FileOutputStream fos, long length) throws IOException {
+    private static void writeLength(OutputStream fos, long length) throws IOException {
         if (length > 0x7F) {
             int lenlen = 1 + (int) (Math.log(length) / Math.log(256));
             fos.write((byte) (0x80 + lenlen));
@@ -99,19 +114,60 @@ public class TRSMetaDataUtils {
         do {
             // read meta data items and put them in trs
             tag = buffer.get();
-            int length = buffer.get();
-            if ((length & 0x80) != 0) {
-                int addlen = length & 0x7F;
-                length = 0;
-                for (int i = 0; i < addlen; i++) {
-                    length |= (buffer.get() & 0xFF) << (i * 8);
-                }
-            }
+            int length = readLength(buffer);
             readAndStoreData(buffer, tag, length, trs);
         } while (tag != TRSTag.TRACE_BLOCK.getValue());
         return trs;
     }
 
+    private static int readLength(ByteBuffer buffer) {
+        int length = buffer.get();
+        if ((length & 0x80) != 0) {
+            int addlen = length & 0x7F;
+            length = 0;
+            for (int i = 0; i < addlen; i++) {
+                length |= (buffer.get() & 0xFF) << (i * 8);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Find where the value of a tag is stored in the header of a TRS file, without parsing any of the values.
+     * This allows a single value to be updated in place, without rewriting the header.
+     * The position of the buffer is not changed.
+     *
+     * @param buffer The buffer which wraps the TRS file, of which the first byte is the first byte of the file
+     * @param tag    the tag to find
+     * @return the index in the buffer of the first byte of the value of the tag, or -1 if the tag is not present
+     * @throws TRSFormatException if the header is corrupt, or the value of the tag does not have the length
+     *                            required for the type of the tag
+     */
+    public static int findTagValue(ByteBuffer buffer, TRSTag tag) throws TRSFormatException {
+        ByteBuffer header = buffer.duplicate();
+        header.position(0);
+        byte current;
+        do {
+            current = header.get();
+            int length = readLength(header);
+            if (length < 0 || length > header.remaining()) {
+                throw new TRSFormatException(String.format(TAG_LENGTH_INVALID, String.format("%02X", current), length));
+            }
+            if (current == tag.getValue()) {
+                if (hasFixedLength(tag) && tag.getLength() != length) {
+                    throw new TRSFormatException(String.format(TAG_LENGTH_UNEXPECTED, tag.name(), length, tag.getLength()));
+                }
+                return header.position();
+            }
+            header.position(header.position() + length);
+        } while (current != TRSTag.TRACE_BLOCK.getValue());
+        return -1;
+    }
+
+    private static boolean hasFixedLength(TRSTag tag) {
+        return tag.getType() == Integer.class || tag.getType() == Float.class || tag.getType() == Boolean.class;
+    }
+
     public static String readName(LittleEndianInputStream dis) throws IOException {
         //Read NL
         short nameLength = dis.readShort();
@@ -122,6 +178,13 @@ public class TRSMetaDataUtils {
         return new String(nameBytes, StandardCharsets.UTF_8);
     }
 
+    public static String readName(LittleEndianBuffer buffer) throws IOException {
+        //Read NL
+        short nameLength = buffer.readShort();
+        //Read N
+        return buffer.readString(nameLength);
+    }
+
     private static void readAndStoreData(ByteBuffer buffer, byte tag, int length, TRSMetaData trsMD)
             throws TRSFormatException {
         boolean hasValidLength = (0 <= length & length <= 0xffff);
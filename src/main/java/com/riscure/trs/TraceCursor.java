@@ -0,0 +1,279 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.parameter.trace.TraceParameterRecord;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import static com.riscure.trs.enums.TRSTag.GLOBAL_TITLE;
+
+/**
+ * TraceCursor is used to scan the traces of a trace set in order, without creating any objects per trace.
+ * The title and parameters of the current trace are exposed through reusable holders, and the samples are decoded
+ * into arrays owned by the caller:
+ * <pre>
+ *     TraceCursor cursor = traceSet.cursor();
+ *     float[] samples = new float[cursor.getNumberOfSamples()];
+ *     while (cursor.next()) {
+ *         cursor.readSamples(samples, 0);
+ *         int input = cursor.getParameters().getInt("INPUT");
+ *     }
+ * </pre>
+ *
+ * A cursor is not thread safe; use a separate cursor for every thread.
+ * The values returned by the holders are only valid until the next call to {@link #next()}.
+ */
+public class TraceCursor {
+    private static final String TRACE_SET_NOT_OPEN = "TraceSet has not been opened or has been closed.";
+    private static final String NO_CURRENT_TRACE = "The cursor is not positioned on a trace. Call next() first.";
+    private static final String ARRAY_TOO_SMALL = "Unable to store %d samples at offset %d of an array of length %d";
+
+    private final TraceSet traceSet;
+    private final TraceSetLayout layout;
+    private final String globalTitle;
+    private final TraceParameterRecord parameters;
+    private final StringBuilder title;
+    private final CharBuffer titleChars;
+    private final CharsetDecoder titleDecoder;
+
+    private int index = -1;
+    private boolean titleDecoded;
+    private TraceSet.MappedSegment segment;
+    private ByteBuffer window;          //a little endian view of the current segment, owned by this cursor
+    private int position;               //the index in the window where the current trace starts
+    private final Buffer[] typedViews;  //typed views of the window, indexed by the byte offset they start at
+
+    TraceCursor(TraceSet traceSet, TraceSetLayout layout, TRSMetaData metaData) {
+        this.traceSet = traceSet;
+        this.layout = layout;
+        this.globalTitle = metaData.getString(GLOBAL_TITLE);
+        this.parameters = new TraceParameterRecord(traceSet.getParameterSchema());
+        this.title = new StringBuilder(layout.getTitleSpace());
+        this.titleChars = CharBuffer.allocate(layout.getTitleSpace());
+        this.titleDecoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.typedViews = new Buffer[Math.max(1, layout.getEncoding().getSize())];
+    }
+
+    /**
+     * Move the cursor to the next trace. A new cursor is positioned before the first trace.
+     * @return true if the cursor moved to the next trace, false if there are no more traces
+     * @throws IOException if mapping the next part of the file failed
+     * @throws IllegalArgumentException if the trace set has been closed
+     */
+    public boolean next() throws IOException {
+        if (index + 1 >= layout.getNumberOfTraces()) {
+            return false;
+        }
+        if (!traceSet.isOpen()) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        index++;
+        long start = layout.traceOffset(index);
+        if (segment == null || !segment.contains(start, start + layout.getTraceSize())) {
+            moveToSegment(traceSet.segmentFor(index));
+        }
+        position = (int) (start - segment.start);
+        parameters.moveTo(window, position + layout.getDataOffset());
+        titleDecoded = false;
+        return true;
+    }
+
+    private void moveToSegment(TraceSet.MappedSegment next) {
+        segment = next;
+        window = next.view().order(ByteOrder.LITTLE_ENDIAN);
+        Arrays.fill(typedViews, null);
+    }
+
+    /**
+     * Get a typed view of the window, positioned at the samples of the current trace. Since the samples of consecutive
+     * traces are not necessarily aligned to the sample size, one view is kept for every possible alignment. These are
+     * created once per segment, so copying samples does not create any objects in the steady state.
+     */
+    private Buffer typedSamples() {
+        int sampleSize = layout.getEncoding().getSize();
+        int samplesPosition = samplesPosition();
+        int alignment = samplesPosition % sampleSize;
+        Buffer view = typedViews[alignment];
+        if (view == null) {
+            ByteBuffer bytes = window.duplicate();
+            bytes.position(alignment);
+            bytes = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+            switch (layout.getEncoding()) {
+                case SHORT:
+                    view = bytes.asShortBuffer();
+                    break;
+                case INT:
+                    view = bytes.asIntBuffer();
+                    break;
+                case FLOAT:
+                    view = bytes.asFloatBuffer();
+                    break;
+                default:
+                    throw new IllegalStateException("Illegal sample encoding");
+            }
+            typedViews[alignment] = view;
+        }
+        view.position((samplesPosition - alignment) / sampleSize);
+        return view;
+    }
+
+    /**
+     * @return the index of the current trace
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of samples of every trace
+     */
+    public int getNumberOfSamples() {
+        return layout.getNumberOfSamples();
+    }
+
+    /**
+     * @return the encoding in which the samples are stored
+     */
+    public Encoding getEncoding() {
+        return layout.getEncoding();
+    }
+
+    /**
+     * Get the title of the current trace. If no title is stored, a title is created from the global title of the set.
+     * @return a reused character sequence containing the title, which is only valid until the cursor moves
+     */
+    public CharSequence getTitle() {
+        checkPositioned();
+        if (!titleDecoded) {
+            window.limit(position + layout.getTitleSpace());
+            window.position(position);
+            titleChars.clear();
+            titleDecoder.reset();
+            titleDecoder.decode(window, titleChars, true);
+            titleDecoder.flush(titleChars);
+            titleChars.flip();
+            window.clear();
+
+            title.setLength(0);
+            if (isBlank(titleChars)) {
+                title.append(globalTitle).append(' ').append(index);
+            } else {
+                title.append(titleChars);
+            }
+            titleDecoded = true;
+        }
+        return title;
+    }
+
+    private static boolean isBlank(CharBuffer chars) {
+        for (int k = chars.position(); k < chars.limit(); k++) {
+            if (chars.get(k) > ' ') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the reused parameter record of the current trace, which is only valid until the cursor moves
+     */
+    public TraceParameterRecord getParameters() {
+        checkPositioned();
+        return parameters;
+    }
+
+    /**
+     * Copy the raw (crypto) data of the current trace into the provided array
+     * @param dst the array to copy the data into, which should be at least as long as the data
+     */
+    public void readData(byte[] dst) {
+        checkPositioned();
+        window.position(position + layout.getDataOffset());
+        window.get(dst, 0, layout.getDataLength());
+        window.clear();
+    }
+
+    /**
+     * Copy the samples of the current trace into the provided array. This requires the samples to be coded as BYTE.
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in a byte
+     */
+    public void readSamples(byte[] dst, int offset) {
+        checkPositioned();
+        checkBounds(dst.length, offset);
+        if (layout.getEncoding() == Encoding.BYTE) {
+            window.position(position + layout.getSamplesOffset());
+            window.get(dst, offset, layout.getNumberOfSamples());
+            window.clear();
+        } else {
+            SampleCodec.decode(window, samplesPosition(), layout.getEncoding(), layout.getNumberOfSamples(), dst, offset);
+        }
+    }
+
+    /**
+     * Copy the samples of the current trace into the provided array. This requires the samples to be coded as BYTE or SHORT.
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in a short
+     */
+    public void readSamples(short[] dst, int offset) {
+        checkPositioned();
+        checkBounds(dst.length, offset);
+        if (layout.getEncoding() == Encoding.SHORT) {
+            ((ShortBuffer) typedSamples()).get(dst, offset, layout.getNumberOfSamples());
+        } else {
+            SampleCodec.decode(window, samplesPosition(), layout.getEncoding(), layout.getNumberOfSamples(), dst, offset);
+        }
+    }
+
+    /**
+     * Copy the samples of the current trace into the provided array. This requires the samples to be coded as BYTE, SHORT or INT.
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in an int
+     */
+    public void readSamples(int[] dst, int offset) {
+        checkPositioned();
+        checkBounds(dst.length, offset);
+        if (layout.getEncoding() == Encoding.INT) {
+            ((IntBuffer) typedSamples()).get(dst, offset, layout.getNumberOfSamples());
+        } else {
+            SampleCodec.decode(window, samplesPosition(), layout.getEncoding(), layout.getNumberOfSamples(), dst, offset);
+        }
+    }
+
+    /**
+     * Copy the samples of the current trace into the provided array, converting them to floats if necessary.
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     */
+    public void readSamples(float[] dst, int offset) {
+        checkPositioned();
+        checkBounds(dst.length, offset);
+        if (layout.getEncoding() == Encoding.FLOAT) {
+            ((FloatBuffer) typedSamples()).get(dst, offset, layout.getNumberOfSamples());
+        } else {
+            SampleCodec.decode(window, samplesPosition(), layout.getEncoding(), layout.getNumberOfSamples(), dst, offset);
+        }
+    }
+
+    private int samplesPosition() {
+        return position + layout.getSamplesOffset();
+    }
+
+    private void checkPositioned() {
+        if (index < 0) throw new NoSuchElementException(NO_CURRENT_TRACE);
+    }
+
+    private void checkBounds(int arrayLength, int offset) {
+        int numberOfSamples = layout.getNumberOfSamples();
+        if (offset < 0 || offset > arrayLength - numberOfSamples) {
+            throw new IndexOutOfBoundsException(String.format(ARRAY_TOO_SMALL, numberOfSamples, offset, arrayLength));
+        }
+    }
+}
@@ -2,16 +2,25 @@ package com.riscure.trs;
 
 import com.riscure.trs.enums.Encoding;
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.enums.QueuePolicy;
 import com.riscure.trs.parameter.TraceParameter;
 import com.riscure.trs.parameter.primitive.StringParameter;
+import com.riscure.trs.parameter.trace.CompactTraceParameters;
+import com.riscure.trs.parameter.trace.ParameterAccessor;
+import com.riscure.trs.parameter.trace.TraceParameterEncoder;
 import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.trace.TraceParameterRecord;
+import com.riscure.trs.parameter.trace.TraceParameterSchema;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.types.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetDecoder;
@@ -19,13 +28,29 @@ import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.riscure.trs.enums.TRSTag.*;
 
-public class TraceSet implements AutoCloseable {
+public class TraceSet implements AutoCloseable, Iterable<Trace> {
     private static final String ERROR_READING_FILE = "Error reading TRS file: file size (%d) != meta data (%d) + trace size (%d) * nr of traces (%d)";
     private static final String TRACE_SET_NOT_OPEN = "TraceSet has not been opened or has been closed.";
     private static final String TRACE_SET_IN_WRITE_MODE = "TraceSet is in write mode. Please open the TraceSet in read mode.";
@@ -33,56 +58,98 @@ public class TraceSet implements AutoCloseable {
     private static final String TRACE_SET_IN_READ_MODE = "TraceSet is in read mode. Please open the TraceSet in write mode.";
     private static final String TRACE_LENGTH_DIFFERS = "All traces in a set need to be the same length, but current trace length (%d) differs from the previous trace(s) (%d)";
     private static final String TRACE_DATA_LENGTH_DIFFERS = "All traces in a set need to have the same data length, but current trace data length (%d) differs from the previous trace(s) (%d)";
+    private static final String TRACE_RANGE_OUT_OF_BOUNDS = "Requested trace range [%d, %d) is not within the available traces [0, %d).";
+    private static final String ARRAY_TOO_SMALL = "The requested traces contain %d values, which do not fit in an array of length %d";
     private static final String UNKNOWN_SAMPLE_CODING = "Error reading TRS file: unknown sample coding '%d'";
+    private static final String TRACE_TOO_LARGE = "Unable to map a trace of %d bytes: the maximum segment size is %d bytes";
     private static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE;
-    private static final String PARAMETER_NOT_DEFINED = "Parameter %s is saved in the trace, but was not found in the header definition";
-    private static final CharsetDecoder UTF8_DECODER = StandardCharsets.UTF_8.newDecoder();
+    private static final long READ_AHEAD_SIZE = 16 * 1024 * 1024;  //the number of bytes read ahead while iterating
+    private static final int PAGE_SIZE = 4096;
+    static final int DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_MAPPED_WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1024;
+    private static final String LAYOUT_NOT_KNOWN = "The layout of the trace set is not known yet. Declare it with a TraceSetBuilder, or add a trace with typed samples first.";
+    private static final String PARTIAL_SAMPLE = "The %d bytes of samples are not a multiple of the sample size (%d bytes)";
+    private static final String INVALID_QUEUE_SIZE = "The queue size should be positive, but was %d";
+    private static final String ASYNC_WRITER_STARTED = "The asynchronous writer has already been started";
+    private static final String ASYNC_WRITER_IN_USE = "Traces have been added asynchronously, so they can no longer be added directly";
+    private static final String DATA_NOT_DEFINED = "Unable to append to a TRS file of which the %d bytes of trace data are not described by parameter definitions";
+    private static final String NUMBER_OF_TRACES_MISSING = "Unable to append to a TRS file without the number of traces in its header";
+    private static final String TRACE_SET_NOT_EDITABLE = "TraceSet is not opened for editing. Please open the TraceSet with openForEdit.";
+    private static final String COLUMN_TYPE_MISMATCH = "TraceParameter %s is of type %s, but was requested as %s";
+    private static final String INVALID_BUFFER_SIZE = "The write buffer size should be positive, but was %d";
 
     //Reading variables
-    private int metaDataSize;
     private FileInputStream readStream;
     private FileChannel channel;
 
-    private ByteBuffer buffer;
-
-    private long bufferStart;       //the byte index of the file where the buffer window starts
-    private long bufferSize;        //the number of bytes that are in the buffer window
-    private long fileSize;          //the total number of bytes in the underlying file
+    private TraceSetLayout layout;          //the location of all traces in the file, computed once when opening or writing the first trace
+    private boolean sizeMatchesLayout;      //whether the size of the file matches the size computed from the metadata
+    private volatile SegmentTable segments; //the mapped parts of the file, shared by all reading threads
+    private long fileSize;                  //the total number of bytes in the underlying file
+    private final long maxSegmentSize;      //the maximum number of bytes mapped in a single segment
+    private ExecutorService readAhead;      //loads the pages of upcoming traces while iterating, created on first use
+    private volatile TraceParameterSchema parameterSchema;  //shared by all compact parameter records, created on first use
 
     //Writing variables
-    private FileOutputStream writeStream;
+    private FileChannel writeChannel;
+    private ByteBuffer writeBuffer;         //the encoded traces that have not been written to the file yet
+    private final int writeBufferSize;
+    private boolean mapWrites;              //whether traces are written through memory mapped windows of the file
+    private MappedWriteBuffer mappedBuffer; //provides the write buffer when writes are mapped, created with the header
 
     private boolean firstTrace = true;
+    private TraceParameterDefinitionMap parameterDefinitions;
+    private TraceParameterEncoder parameterEncoder;
+    private volatile AsyncTraceWriter asyncWriter;   //adds the traces passed to addAsync on a background thread, created on first use
+    private int asyncCapacity = DEFAULT_ASYNC_QUEUE_SIZE;
+    private QueuePolicy asyncPolicy = QueuePolicy.BLOCK;
+    private long numberOfTracesOffset = -1; //where the number of traces is patched on close, when appending to a file
 
     //Shared variables
     private final TRSMetaData metaData;
-    private boolean open;
+    private volatile boolean open;
     private final boolean writing;        //whether the trace is opened in write mode
+    private final boolean editing;        //whether the traces of a trace set opened for reading can be modified in place
     private final Path path;
 
-    private TraceSet(String inputFileName) throws IOException, TRSFormatException {
+    private TraceSet(String inputFileName, long maxSegmentSize, boolean editing) throws IOException, TRSFormatException {
         this.writing = false;
+        this.editing = editing;
         this.open = true;
+        this.writeBufferSize = 0;
         this.path = Paths.get(inputFileName);
-        this.readStream = new FileInputStream(inputFileName);
-        this.channel = readStream.getChannel();
+        if (editing) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            this.readStream = new FileInputStream(inputFileName);
+            this.channel = readStream.getChannel();
+        }
+        this.maxSegmentSize = maxSegmentSize;
 
-        //the file might be bigger than the buffer, in which case we partially buffer it in memory
+        //the file might be bigger than the buffer, in which case the traces are mapped in segments later on
         this.fileSize = this.channel.size();
-        this.bufferStart = 0L;
-        this.bufferSize = Math.min(fileSize, MAX_BUFFER_SIZE);
+        ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, Math.min(fileSize, MAX_BUFFER_SIZE));
+        this.metaData = TRSMetaDataUtils.readTRSMetaData(header);
+        this.layout = TraceSetLayout.of(header.position(), metaData);
+        this.sizeMatchesLayout = fileSize == layout.getFileSize();
+    }
 
-        mapBuffer();
-        this.metaData = TRSMetaDataUtils.readTRSMetaData(buffer);
-        this.metaDataSize = buffer.position();
+    private TraceSet(String outputFileName, TRSMetaData metaData, int bufferSize) throws FileNotFoundException {
+        this(outputFileName, metaData, new FileOutputStream(outputFileName).getChannel(), bufferSize);
     }
 
-    private TraceSet(String outputFileName, TRSMetaData metaData) throws FileNotFoundException {
+    private TraceSet(String outputFileName, TRSMetaData metaData, FileChannel writeChannel, int bufferSize) {
+        this.maxSegmentSize = MAX_BUFFER_SIZE;
         this.open = true;
         this.writing = true;
+        this.editing = false;
         this.metaData = metaData;
         this.path = Paths.get(outputFileName);
-        this.writeStream = new FileOutputStream(outputFileName);
+        this.writeChannel = writeChannel;
+        this.writeBuffer = EMPTY_BUFFER;    //allocated when the first bytes are written, unless writes are mapped
+        this.writeBufferSize = bufferSize;
     }
 
     /**
@@ -92,84 +159,834 @@ public class TraceSet implements AutoCloseable {
         return path;
     }
 
-    private void mapBuffer() throws IOException {
-        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.bufferStart, this.bufferSize);
+    /**
+     * Get the layout of this trace set, which describes the byte offsets of every trace and sample in the file.
+     * @return the layout of this trace set
+     * @throws IllegalArgumentException if this TraceSet is not opened for reading
+     */
+    public TraceSetLayout getLayout() {
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        return layout;
     }
 
-    private void moveBufferIfNecessary(int traceIndex) throws IOException {
-        long traceSize = calculateTraceSize();
-        long start = metaDataSize + (long) traceIndex * traceSize;
-        long end = start + traceSize;
-
-        boolean moveRequired = start < this.bufferStart || this.bufferStart + this.bufferSize < end;
-        if (moveRequired) {
-            this.bufferStart = start;
-            this.bufferSize = Math.min(this.fileSize - start, MAX_BUFFER_SIZE);
-            this.mapBuffer();
+    /**
+     * Get the mapped segment containing the requested trace. Segments are mapped when they are first used, and
+     * are reused for all subsequent reads. The segment table is created once, under a lock, and segments are never
+     * modified after creation, so this is safe to call from multiple threads.
+     * @param traceIndex the index of the trace that should be contained in the segment
+     * @return a segment containing the full requested trace
+     * @throws IOException if mapping the file failed
+     */
+    MappedSegment segmentFor(int traceIndex) throws IOException {
+        SegmentTable table = this.segments;
+        if (table == null) {
+            synchronized (this) {
+                table = this.segments;
+                if (table == null) {
+                    if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+                    FileChannel.MapMode mode = editing ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+                    table = new SegmentTable(channel, layout, maxSegmentSize, mode);
+                    this.segments = table;
+                }
+            }
         }
-    }
-
-    private long calculateTraceSize() {
-        int sampleSize = Encoding.fromValue(metaData.getInt(SAMPLE_CODING)).getSize();
-        long sampleSpace = metaData.getInt(NUMBER_OF_SAMPLES) * (long) sampleSize;
-        return sampleSpace + metaData.getInt(DATA_LENGTH) + metaData.getInt(TITLE_SPACE);
+        return table.segmentFor(traceIndex);
     }
 
     /**
-     * Get a trace from the set at the specified index
+     * Get a trace from the set at the specified index. This method can be called concurrently from multiple threads.
      * @param index the index of the Trace to read from the file
      * @return the Trace at the requested trace index
      * @throws IOException if a read error occurs
      * @throws IllegalArgumentException if this TraceSet is not ready be read from
      */
     public Trace get(int index) throws IOException {
+        return view(index).toTrace();
+    }
+
+    /**
+     * Get a view on the trace at the specified index, without reading or copying any of its contents.
+     * The title, parameters and samples are only decoded when requested from the view.
+     * This method can be called concurrently from multiple threads.
+     * @param index the index of the trace to view
+     * @return a view on the trace at the requested trace index, which is valid while this TraceSet is open
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public TraceView view(int index) throws IOException {
+        return new TraceView(index, record(index), layout, metaData);
+    }
+
+    /**
+     * @return the bytes of the trace at the specified index, in a buffer of its own
+     */
+    private ByteBuffer record(int index) throws IOException {
         if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
         if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
 
-        long traceSize = calculateTraceSize();
-        long nrOfTraces = this.metaData.getInt(NUMBER_OF_TRACES);
+        int nrOfTraces = layout.getNumberOfTraces();
         if (index >= nrOfTraces) {
             String msg = String.format(TRACE_INDEX_OUT_OF_BOUNDS, index, nrOfTraces);
             throw new IllegalArgumentException(msg);
         }
+        checkFileIntegrity();
+
+        MappedSegment current = segmentFor(index);
+        int position = (int) (layout.traceOffset(index) - current.start);
+        ByteBuffer record = current.view();
+        record.position(position);
+        record.limit(position + (int) layout.getTraceSize());
+        return record.slice();
+    }
+
+    /**
+     * Get a cursor to scan all traces of this set in order, without creating any objects per trace.
+     * Every thread should use its own cursor.
+     * @return a new cursor, positioned before the first trace
+     * @throws IOException if the file is not a valid trace set
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public TraceCursor cursor() throws IOException {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        checkFileIntegrity();
+        return new TraceCursor(this, layout, metaData);
+    }
+
+    /**
+     * Get the schema describing the trace parameters of this set. The schema is created once, and shared by all
+     * parameter records read from this set.
+     * @return the schema of the trace parameters of this set
+     * @throws IllegalArgumentException if this TraceSet is not opened for reading
+     */
+    public TraceParameterSchema getParameterSchema() {
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        TraceParameterSchema schema = this.parameterSchema;
+        if (schema == null) {
+            synchronized (this) {
+                schema = this.parameterSchema;
+                if (schema == null) {
+                    schema = new TraceParameterSchema(metaData.getTraceParameterDefinitions());
+                    this.parameterSchema = schema;
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Bind an accessor to a scalar trace parameter of this set, which reads its value from the parameter records of
+     * this set without any lookup or boxing. This is a shortcut for {@code getParameterSchema().accessor(typedKey)}.
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace of this set
+     * @throws java.util.NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     * @throws IllegalArgumentException if this TraceSet is not opened for reading
+     */
+    public ParameterAccessor.IntAccessor accessor(IntegerTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
 
-        long calculatedFileSize = metaDataSize + traceSize * nrOfTraces;
-        if (fileSize != calculatedFileSize) {
-            String msg = String.format(ERROR_READING_FILE, fileSize, metaDataSize, traceSize, nrOfTraces);
+    public ParameterAccessor.ByteAccessor accessor(ByteTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    public ParameterAccessor.ShortAccessor accessor(ShortTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    public ParameterAccessor.FloatAccessor accessor(FloatTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    public ParameterAccessor.LongAccessor accessor(LongTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    public ParameterAccessor.DoubleAccessor accessor(DoubleTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    public ParameterAccessor.BooleanAccessor accessor(BooleanTypeKey typedKey) {
+        return getParameterSchema().accessor(typedKey);
+    }
+
+    /**
+     * Read the parameters of a trace into a compact record, which only holds the raw parameter bytes and shares the
+     * schema of this set. This is the most memory efficient way to keep the parameters of many traces in memory.
+     * Legacy (version 1) trace sets have no parameter definitions, so their records are empty.
+     * This method can be called concurrently from multiple threads.
+     * @param index the index of the trace
+     * @return a new record containing the parameters of the requested trace
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public CompactTraceParameters getCompactParameters(int index) throws IOException {
+        TraceParameterSchema schema = getParameterSchema();
+        ByteBuffer record = record(index);
+        byte[] data = new byte[schema.totalSize()];
+        record.position(layout.getDataOffset());
+        record.get(data);
+        return CompactTraceParameters.of(data, schema);
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    private void checkFileIntegrity() throws IOException {
+        if (layout.getEncoding() == Encoding.ILLEGAL) {
+            throw new IOException(new TRSFormatException(String.format(UNKNOWN_SAMPLE_CODING, layout.getSampleCoding())));
+        }
+
+        if (!sizeMatchesLayout) {
+            String msg = String.format(ERROR_READING_FILE, fileSize, layout.getHeaderSize(), layout.getTraceSize(), layout.getNumberOfTraces());
             throw new IllegalStateException(msg);
         }
+    }
+
+    /**
+     * Copy the samples of the trace at the specified index into the provided array, without widening them to floats.
+     * This requires the samples to be coded as BYTE.
+     * @param index the index of the trace to read
+     * @param dst the array to copy the samples into, which should be at least as long as the number of samples
+     * @throws IOException if a read error occurs
+     * @throws IllegalStateException if the samples do not fit in a byte
+     */
+    public void readSamples(int index, byte[] dst) throws IOException {
+        view(index).readSamples(dst, 0);
+    }
+
+    /**
+     * Copy the samples of the trace at the specified index into the provided array, without widening them to floats.
+     * This requires the samples to be coded as BYTE or SHORT.
+     * @param index the index of the trace to read
+     * @param dst the array to copy the samples into, which should be at least as long as the number of samples
+     * @throws IOException if a read error occurs
+     * @throws IllegalStateException if the samples do not fit in a short
+     */
+    public void readSamples(int index, short[] dst) throws IOException {
+        view(index).readSamples(dst, 0);
+    }
+
+    /**
+     * Copy the samples of the trace at the specified index into the provided array, without widening them to floats.
+     * This requires the samples to be coded as BYTE, SHORT or INT.
+     * @param index the index of the trace to read
+     * @param dst the array to copy the samples into, which should be at least as long as the number of samples
+     * @throws IOException if a read error occurs
+     * @throws IllegalStateException if the samples do not fit in an int
+     */
+    public void readSamples(int index, int[] dst) throws IOException {
+        view(index).readSamples(dst, 0);
+    }
+
+    /**
+     * Copy the samples of a range of traces into one contiguous array. The samples of trace {@code fromIndex + k}
+     * are written starting at index {@code k * NUMBER_OF_SAMPLES} of the array (row-major order).
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the samples into, which should hold at least (toIndex - fromIndex) * NUMBER_OF_SAMPLES values
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if the range is invalid, or the array is too small
+     */
+    public void readSamples(int fromIndex, int toIndex, float[] dst) throws IOException {
+        Encoding encoding = layout.getEncoding();
+        int numberOfSamples = layout.getNumberOfSamples();
+        readRange(fromIndex, toIndex, dst.length, (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, encoding, numberOfSamples, dst, offset));
+    }
+
+    /**
+     * Copy the samples of a range of traces into one contiguous array, without widening them to floats.
+     * This requires the samples to be coded as BYTE.
+     * The samples of trace {@code fromIndex + k} are written starting at index {@code k * NUMBER_OF_SAMPLES} of the array.
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the samples into, which should hold at least (toIndex - fromIndex) * NUMBER_OF_SAMPLES values
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if the range is invalid, or the array is too small
+     * @throws IllegalStateException if the samples do not fit in a byte
+     */
+    public void readSamples(int fromIndex, int toIndex, byte[] dst) throws IOException {
+        Encoding encoding = layout.getEncoding();
+        int numberOfSamples = layout.getNumberOfSamples();
+        readRange(fromIndex, toIndex, dst.length, (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, encoding, numberOfSamples, dst, offset));
+    }
+
+    /**
+     * Copy the samples of a range of traces into one contiguous array, without widening them to floats.
+     * This requires the samples to be coded as BYTE or SHORT.
+     * The samples of trace {@code fromIndex + k} are written starting at index {@code k * NUMBER_OF_SAMPLES} of the array.
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the samples into, which should hold at least (toIndex - fromIndex) * NUMBER_OF_SAMPLES values
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if the range is invalid, or the array is too small
+     * @throws IllegalStateException if the samples do not fit in a short
+     */
+    public void readSamples(int fromIndex, int toIndex, short[] dst) throws IOException {
+        Encoding encoding = layout.getEncoding();
+        int numberOfSamples = layout.getNumberOfSamples();
+        readRange(fromIndex, toIndex, dst.length, (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, encoding, numberOfSamples, dst, offset));
+    }
+
+    /**
+     * Copy the samples of a range of traces into one contiguous array, without widening them to floats.
+     * This requires the samples to be coded as BYTE, SHORT or INT.
+     * The samples of trace {@code fromIndex + k} are written starting at index {@code k * NUMBER_OF_SAMPLES} of the array.
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the samples into, which should hold at least (toIndex - fromIndex) * NUMBER_OF_SAMPLES values
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if the range is invalid, or the array is too small
+     * @throws IllegalStateException if the samples do not fit in an int
+     */
+    public void readSamples(int fromIndex, int toIndex, int[] dst) throws IOException {
+        Encoding encoding = layout.getEncoding();
+        int numberOfSamples = layout.getNumberOfSamples();
+        readRange(fromIndex, toIndex, dst.length, (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, encoding, numberOfSamples, dst, offset));
+    }
+
+    /**
+     * Validates a range of traces once, and then passes the samples of every trace in the range to the provided copier
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param arrayLength the length of the destination array
+     * @param copier the action copying the samples of a single trace into the destination array
+     */
+    private void readRange(int fromIndex, int toIndex, int arrayLength, RecordCopier copier) throws IOException {
+        readRange(fromIndex, toIndex, layout.getSamplesOffset(), layout.getNumberOfSamples(), arrayLength, copier);
+    }
+
+    /**
+     * Validates a range of traces once, and then passes the same part of every trace in the range to the provided copier
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param offsetInTrace the byte offset of the part to copy, relative to the start of a trace
+     * @param valuesPerTrace the number of values copied from every trace
+     * @param arrayLength the length of the destination array
+     * @param copier the action copying the values of a single trace into the destination array
+     */
+    private void readRange(int fromIndex, int toIndex, int offsetInTrace, int valuesPerTrace, int arrayLength,
+                           RecordCopier copier) throws IOException {
+        checkRange(fromIndex, toIndex);
+        long requiredLength = (long) (toIndex - fromIndex) * valuesPerTrace;
+        if (requiredLength > arrayLength) {
+            throw new IllegalArgumentException(String.format(ARRAY_TOO_SMALL, requiredLength, arrayLength));
+        }
+        checkFileIntegrity();
+
+        long traceSize = layout.getTraceSize();
+        MappedSegment current = null;
+        ByteBuffer buffer = null;
+        for (int index = fromIndex; index < toIndex; index++) {
+            long start = layout.traceOffset(index);
+            if (current == null || !current.contains(start, start + traceSize)) {
+                current = segmentFor(index);
+                buffer = current.view().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            int position = (int) (start - current.start) + offsetInTrace;
+            copier.copy(buffer, position, (index - fromIndex) * valuesPerTrace);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+
+        int nrOfTraces = layout.getNumberOfTraces();
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > nrOfTraces) {
+            throw new IllegalArgumentException(String.format(TRACE_RANGE_OUT_OF_BOUNDS, fromIndex, toIndex, nrOfTraces));
+        }
+    }
+
+    /**
+     * Copies the values of a single trace, starting at the given position in the buffer, into a destination array
+     */
+    private interface RecordCopier {
+        void copy(ByteBuffer buffer, int position, int offset);
+    }
+
+    /**
+     * Copy a byte parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter. The UTF-8 bytes of a
+     * string parameter can be read the same way.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a byte or string parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, byte[] dst) throws IOException {
+        readColumn(name, ParameterType.BYTE, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, Encoding.BYTE, length, dst, offset));
+    }
+
+    /**
+     * Copy a short parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a short parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, short[] dst) throws IOException {
+        readColumn(name, ParameterType.SHORT, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, Encoding.SHORT, length, dst, offset));
+    }
+
+    /**
+     * Copy an int parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not an int parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, int[] dst) throws IOException {
+        readColumn(name, ParameterType.INT, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, Encoding.INT, length, dst, offset));
+    }
+
+    /**
+     * Copy a float parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a float parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, float[] dst) throws IOException {
+        readColumn(name, ParameterType.FLOAT, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) ->
+                SampleCodec.decode(buffer, position, Encoding.FLOAT, length, dst, offset));
+    }
 
-        moveBufferIfNecessary(index);
+    /**
+     * Copy a long parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a long parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, long[] dst) throws IOException {
+        readColumn(name, ParameterType.LONG, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) -> {
+            buffer.position(position);
+            buffer.asLongBuffer().get(dst, offset, length);
+        });
+    }
 
-        long absolutePosition = metaDataSize + index * traceSize;
-        buffer.position((int) (absolutePosition - this.bufferStart));
+    /**
+     * Copy a double parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a double parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, double[] dst) throws IOException {
+        readColumn(name, ParameterType.DOUBLE, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) -> {
+            buffer.position(position);
+            buffer.asDoubleBuffer().get(dst, offset, length);
+        });
+    }
 
-        String traceTitle = this.readTraceTitle();
-        if (traceTitle.trim().isEmpty()) {
-            traceTitle = String.format("%s %d", metaData.getString(GLOBAL_TITLE), index);
+    /**
+     * Copy a boolean parameter of a range of traces into one contiguous array, without reading the samples or decoding
+     * any of the other parameters. The values of trace {@code fromIndex + k} are written starting at index
+     * {@code k * length} of the array, where length is the number of values of the parameter.
+     * This method can be called concurrently from multiple threads.
+     * @param name the name of the parameter
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param dst the array to copy the values into, which should hold at least (toIndex - fromIndex) * length values
+     * @throws IOException if a read error occurs
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a boolean parameter
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, the range is invalid, or the array
+     * is too small
+     */
+    public void readParameterColumn(String name, int fromIndex, int toIndex, boolean[] dst) throws IOException {
+        readColumn(name, ParameterType.BOOL, fromIndex, toIndex, dst.length, length -> (buffer, position, offset) -> {
+            for (int k = 0; k < length; k++) {
+                dst[offset + k] = buffer.get(position + k) != 0;
+            }
+        });
+    }
+
+    /**
+     * Validates the requested parameter once, and then passes its values of every trace in the range to a copier
+     * @param name the name of the parameter
+     * @param type the type the parameter is requested as
+     * @param fromIndex the index of the first trace to read (inclusive)
+     * @param toIndex the index of the last trace to read (exclusive)
+     * @param arrayLength the length of the destination array
+     * @param copier creates the action copying the values of a single trace, given the number of values per trace
+     */
+    private void readColumn(String name, ParameterType type, int fromIndex, int toIndex, int arrayLength,
+                            IntFunction<RecordCopier> copier) throws IOException {
+        checkRange(fromIndex, toIndex);
+        TraceParameterSchema schema = getParameterSchema();
+        int field = schema.requireIndex(name);
+        ParameterType stored = schema.getType(field);
+        //the UTF-8 bytes of a string parameter are read like the values of a byte parameter
+        if (stored != type && !(stored == ParameterType.STRING && type == ParameterType.BYTE)) {
+            throw new ClassCastException(String.format(COLUMN_TYPE_MISMATCH, name, stored, type));
         }
+        int length = schema.getLength(field);
+        readRange(fromIndex, toIndex, layout.getDataOffset() + schema.getOffset(field), length, arrayLength,
+                copier.apply(length));
+    }
+
+    /**
+     * Find all traces of which the parameters match a predicate. Only the parameters of every trace are read: the
+     * samples are never touched, and no trace objects are created.
+     * @param predicate the condition the parameters of a trace should match, for example
+     * {@code parameters -> parameters.getByte("KEY", 0) == 0x2B}
+     * @return a bitset containing the indices of all matching traces
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     * @see #select(int, int, Predicate)
+     */
+    public BitSet select(Predicate<TraceParameterRecord> predicate) throws IOException {
+        return select(0, getLayout().getNumberOfTraces(), predicate);
+    }
+
+    /**
+     * Find the traces in a range of which the parameters match a predicate. Only the parameters of every trace are
+     * read: the samples are never touched, and no trace objects are created.
+     * <p>
+     * The predicate is evaluated on a single reused record, which is moved to the parameters of every trace in turn,
+     * so it should not keep a reference to the record. Accessors bound with {@link #accessor} read the record without
+     * any lookup, which makes them the fastest way to evaluate a predicate over many traces.
+     * @param fromIndex the index of the first trace to test (inclusive)
+     * @param toIndex the index of the last trace to test (exclusive)
+     * @param predicate the condition the parameters of a trace should match
+     * @return a bitset containing the indices of all matching traces, which are indices in the trace set rather than
+     * relative to the start of the range
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, or the range is invalid
+     */
+    public BitSet select(int fromIndex, int toIndex, Predicate<TraceParameterRecord> predicate) throws IOException {
+        checkRange(fromIndex, toIndex);
+        TraceParameterRecord parameters = new TraceParameterRecord(getParameterSchema());
+        BitSet matches = new BitSet(toIndex);
+        readRange(fromIndex, toIndex, layout.getDataOffset(), 1, toIndex - fromIndex, (buffer, position, row) -> {
+            parameters.moveTo(buffer, position);
+            if (predicate.test(parameters)) {
+                matches.set(fromIndex + row);
+            }
+        });
+        return matches;
+    }
 
+    /**
+     * Overwrite the samples of an existing trace, in a trace set opened with {@link #openForEdit(String)}.
+     * The samples are stored in the sample coding of the trace set.
+     * This method can be called concurrently from multiple threads, for different traces.
+     * @param index the index of the trace to modify
+     * @param samples the new samples of the trace
+     * @throws IOException if a read or write error occurs
+     * @throws TRSFormatException if the sample coding of the trace set is not supported
+     * @throws IllegalArgumentException if this TraceSet is not opened for editing, the number of samples differs from
+     * the trace set, or a sample does not fit the sample coding; in which case the trace is not modified
+     */
+    public void setSamples(int index, float[] samples) throws IOException, TRSFormatException {
+        editSamples(index, samples.length, target -> SampleCodec.encode(samples, layout.getEncoding(), target));
+    }
+
+    /**
+     * Overwrite the samples of an existing trace, without converting them to floats first.
+     * See {@link #setSamples(int, float[])}.
+     */
+    public void setSamples(int index, byte[] samples) throws IOException, TRSFormatException {
+        editSamples(index, samples.length, target -> SampleCodec.encode(samples, layout.getEncoding(), target));
+    }
+
+    /**
+     * Overwrite the samples of an existing trace, without converting them to floats first.
+     * See {@link #setSamples(int, float[])}.
+     */
+    public void setSamples(int index, short[] samples) throws IOException, TRSFormatException {
+        editSamples(index, samples.length, target -> SampleCodec.encode(samples, layout.getEncoding(), target));
+    }
+
+    /**
+     * Overwrite the samples of an existing trace, without converting them to floats first.
+     * See {@link #setSamples(int, float[])}.
+     */
+    public void setSamples(int index, int[] samples) throws IOException, TRSFormatException {
+        editSamples(index, samples.length, target -> SampleCodec.encode(samples, layout.getEncoding(), target));
+    }
+
+    private void editSamples(int index, int numberOfSamples, SampleEncoder samples) throws IOException, TRSFormatException {
+        ByteBuffer record = editableRecord(index);
+        if (numberOfSamples != layout.getNumberOfSamples()) {
+            throw new IllegalArgumentException(String.format(TRACE_LENGTH_DIFFERS, numberOfSamples, layout.getNumberOfSamples()));
+        }
+        //samples are encoded separately first, so a sample that does not fit does not leave the trace half modified
+        ByteBuffer encoded = ByteBuffer.allocate(record.limit() - layout.getSamplesOffset()).order(ByteOrder.LITTLE_ENDIAN);
+        samples.write(encoded);
+        encoded.flip();
+        record.position(layout.getSamplesOffset());
+        record.put(encoded);
+    }
+
+    /**
+     * Overwrite a single parameter of an existing trace, in a trace set opened with {@link #openForEdit(String)}.
+     * The parameter must be defined in the header of the trace set, and have the defined type and length. A string
+     * may also be shorter, in which case it is padded with NUL characters. If the parameter does not match its
+     * definition, the trace is not modified. The other parameters of the trace are not modified either.
+     * This method can be called concurrently from multiple threads, for different traces.
+     * @param index the index of the trace to modify
+     * @param name the name of the parameter
+     * @param value the new value of the parameter
+     * @throws IOException if a read or write error occurs
+     * @throws IllegalArgumentException if this TraceSet is not opened for editing, or the parameter does not match
+     * its definition
+     */
+    public void setParameter(int index, String name, TraceParameter value) throws IOException {
+        //an encoder is not thread safe, so every edit uses its own
+        TraceParameterEncoder encoder = new TraceParameterEncoder(getMetaData().getTraceParameterDefinitions());
+        encoder.encode(name, value, editableRecord(index), layout.getDataOffset());
+    }
+
+    private ByteBuffer editableRecord(int index) throws IOException {
+        if (!editing) throw new IllegalArgumentException(TRACE_SET_NOT_EDITABLE);
+        return record(index).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write all modifications made to the traces of a trace set opened with {@link #openForEdit(String)} to the
+     * storage device. This also happens when the trace set is closed.
+     * @throws IOException if a write error occurs
+     * @throws IllegalArgumentException if this TraceSet is not opened for editing
+     */
+    public void force() throws IOException {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (!editing) throw new IllegalArgumentException(TRACE_SET_NOT_EDITABLE);
+        SegmentTable table = this.segments;
+        if (table != null) table.force();
+    }
+
+    /**
+     * Get an iterator over all traces in this set. While iterating, the next part of the file is loaded in the
+     * background, so reading from disk overlaps with processing the current traces.
+     * Read errors are thrown as {@link UncheckedIOException}.
+     * @return an iterator over all traces in this set, in order
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    @Override
+    public Iterator<Trace> iterator() {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        return new TraceIterator();
+    }
+
+    @Override
+    public Spliterator<Trace> spliterator() {
+        return Spliterators.spliterator(iterator(), layout.getNumberOfTraces(),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Get a sequential stream of all traces in this set, which reads ahead like {@link #iterator()}.
+     * Read errors are thrown as {@link UncheckedIOException}.
+     * @return a stream of all traces in this set, in order
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public Stream<Trace> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Get a parallel stream of all traces in this set. The traces are split into contiguous index ranges that are
+     * aligned with the mapped segments of the file, so that every worker reads a physically contiguous part of the file.
+     * Read errors are thrown as {@link UncheckedIOException}.
+     * @return a parallel stream of all traces in this set
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public Stream<Trace> parallelStream() {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        int tracesPerSegment = SegmentTable.tracesPerSegment(layout.getTraceSize(), maxSegmentSize);
+        return StreamSupport.stream(new TraceSpliterator(0, layout.getNumberOfTraces(), tracesPerSegment), true);
+    }
+
+    /**
+     * Load the pages of a range of traces in the background, by touching one byte of every page
+     * @param fromIndex the index of the first trace to load (inclusive)
+     * @param toIndex the index of the last trace to load (exclusive)
+     */
+    private void readAhead(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex || !open) return;
         try {
-            TraceParameterMap traceParameterMap;
-            if (metaData.getInt(TRS_VERSION) > 1) {
-                TraceParameterDefinitionMap traceParameterDefinitionMap = metaData.getTraceParameterDefinitions();
-                int size = traceParameterDefinitionMap.totalSize();
-                byte[] data = new byte[size];
-                buffer.get(data);
-                traceParameterMap = TraceParameterMap.deserialize(data, traceParameterDefinitionMap);
-            } else {
-                //legacy mode
-                byte[] data = readData();
-                traceParameterMap = new TraceParameterMap();
-                if (data.length > 0) {
-                    traceParameterMap.put("LEGACY_DATA", data);
+            readAheadExecutor().submit(() -> {
+                int checksum = 0;   //returned, so that the reads cannot be optimized away
+                int index = fromIndex;
+                while (index < toIndex && open) {
+                    MappedSegment segment = segmentFor(index);
+                    ByteBuffer view = segment.view();
+                    long end = Math.min(layout.traceOffset(toIndex), segment.end());
+                    for (long position = layout.traceOffset(index); position < end; position += PAGE_SIZE) {
+                        checksum += view.get((int) (position - segment.start));
+                    }
+                    index = (int) ((segment.end() - layout.getHeaderSize()) / layout.getTraceSize());
                 }
+                return checksum;
+            });
+        } catch (RejectedExecutionException ex) {
+            //the trace set was closed in the meantime, so there is nothing left to read ahead
+        }
+    }
+
+    private synchronized ExecutorService readAheadExecutor() {
+        if (readAhead == null) {
+            readAhead = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TraceSet read-ahead " + path.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return readAhead;
+    }
+
+    /**
+     * Splits a range of traces into two halves, preferring to split at the boundary of a segment.
+     * Ranges that span several segments are therefore split into whole segments first, which are then split further.
+     */
+    private final class TraceSpliterator implements Spliterator<Trace> {
+        private int index;                      //the index of the next trace (inclusive)
+        private final int end;                  //the index after the last trace (exclusive)
+        private final int tracesPerSegment;
+
+        private TraceSpliterator(int index, int end, int tracesPerSegment) {
+            this.index = index;
+            this.end = end;
+            this.tracesPerSegment = tracesPerSegment;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Trace> action) {
+            if (index >= end) return false;
+            action.accept(read(index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Trace> action) {
+            while (index < end) {
+                action.accept(read(index++));
+            }
+        }
+
+        private Trace read(int traceIndex) {
+            try {
+                return get(traceIndex);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
+        }
+
+        @Override
+        public Spliterator<Trace> trySplit() {
+            if (end - index < 2) return null;
+            int middle = index + (end - index) / 2;
+            int segmentBoundary = middle - middle % tracesPerSegment;
+            if (segmentBoundary > index) {
+                middle = segmentBoundary;
+            } else if (end - segmentBoundary > tracesPerSegment) {
+                //the range starts in the segment containing the middle, so split at the end of that segment instead
+                middle = segmentBoundary + tracesPerSegment;
+            }
+            Spliterator<Trace> prefix = new TraceSpliterator(index, middle, tracesPerSegment);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Iterates over all traces in order. Whenever it enters a new batch of traces, the next batch is read ahead.
+     * A batch is never larger than a segment, so reading ahead maps at most one segment in advance.
+     */
+    private final class TraceIterator implements Iterator<Trace> {
+        private final int numberOfTraces = layout.getNumberOfTraces();
+        private final int batchSize = layout.getTraceSize() == 0 ? numberOfTraces :
+                (int) Math.max(1, Math.min(numberOfTraces, Math.min(READ_AHEAD_SIZE, maxSegmentSize) / layout.getTraceSize()));
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < numberOfTraces;
+        }
 
-            float[] samples = readSamples();
-            return new Trace(traceTitle, samples, traceParameterMap);
-        } catch (TRSFormatException ex) {
-            throw new IOException(ex);
+        @Override
+        public Trace next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (index % batchSize == 0 && layout.getTraceSize() > 0) {
+                int nextBatch = index + batchSize;
+                readAhead(nextBatch, (int) Math.min(numberOfTraces, (long) nextBatch + batchSize));
+            }
+            try {
+                return get(index++);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
         }
     }
 
@@ -178,48 +995,339 @@ public class TraceSet implements AutoCloseable {
      * @param trace the Trace object to add
      * @throws IOException if any write error occurs
      * @throws TRSFormatException if the formatting of the trace is invalid
+     * @throws IllegalStateException if traces have been added with {@link #addAsync(Trace)}
      */
     public void add(Trace trace) throws IOException, TRSFormatException {
+        checkWritable();
+        checkSynchronous();
+        write(trace);
+    }
+
+    /**
+     * Add a trace with samples stored in a byte array to a writable TraceSet. The samples are copied directly into
+     * the file, without creating a {@link Trace}. If this is the first trace, the samples are stored as bytes.
+     * @param title the title of the trace
+     * @param samples the samples of the trace
+     * @param parameters the parameters of the trace
+     * @throws IOException if any write error occurs
+     * @throws TRSFormatException if the formatting of the trace is invalid
+     * @throws IllegalArgumentException if the trace does not match the layout of the trace set
+     * @throws IllegalStateException if traces have been added with {@link #addAsync(Trace)}
+     */
+    public void add(String title, byte[] samples, TraceParameterMap parameters) throws IOException, TRSFormatException {
+        checkWritable();
+        checkSynchronous();
+        initializeWriter(title, samples.length, Encoding.BYTE.getValue(), parameters);
+        Encoding encoding = Encoding.fromValue(layout.getSampleCoding());
+        write(title, parameters, samples.length, target -> SampleCodec.encode(samples, encoding, target));
+    }
+
+    /**
+     * Add a trace with samples stored in a short array to a writable TraceSet. The samples are copied directly into
+     * the file, without creating a {@link Trace}. If this is the first trace, the samples are stored as shorts.
+     * @param title the title of the trace
+     * @param samples the samples of the trace
+     * @param parameters the parameters of the trace
+     * @throws IOException if any write error occurs
+     * @throws TRSFormatException if the formatting of the trace is invalid
+     * @throws IllegalArgumentException if the trace does not match the layout of the trace set, or a sample does not
+     * fit in the sample coding of the trace set
+     * @throws IllegalStateException if traces have been added with {@link #addAsync(Trace)}
+     */
+    public void add(String title, short[] samples, TraceParameterMap parameters) throws IOException, TRSFormatException {
+        checkWritable();
+        checkSynchronous();
+        initializeWriter(title, samples.length, Encoding.SHORT.getValue(), parameters);
+        Encoding encoding = Encoding.fromValue(layout.getSampleCoding());
+        write(title, parameters, samples.length, target -> SampleCodec.encode(samples, encoding, target));
+    }
+
+    /**
+     * Add a trace with samples stored in an int array to a writable TraceSet. The samples are copied directly into
+     * the file, without creating a {@link Trace}. If this is the first trace, the samples are stored as ints.
+     * @param title the title of the trace
+     * @param samples the samples of the trace
+     * @param parameters the parameters of the trace
+     * @throws IOException if any write error occurs
+     * @throws TRSFormatException if the formatting of the trace is invalid
+     * @throws IllegalArgumentException if the trace does not match the layout of the trace set, or a sample does not
+     * fit in the sample coding of the trace set
+     * @throws IllegalStateException if traces have been added with {@link #addAsync(Trace)}
+     */
+    public void add(String title, int[] samples, TraceParameterMap parameters) throws IOException, TRSFormatException {
+        checkWritable();
+        checkSynchronous();
+        initializeWriter(title, samples.length, Encoding.INT.getValue(), parameters);
+        Encoding encoding = Encoding.fromValue(layout.getSampleCoding());
+        write(title, parameters, samples.length, target -> SampleCodec.encode(samples, encoding, target));
+    }
+
+    /**
+     * Add a trace with samples that are already encoded to a writable TraceSet. The samples are copied into the file
+     * as they are, so they should be stored in little endian order, in the sample coding of the trace set.
+     * Since the encoding cannot be derived from the buffer, the layout of the trace set should be known: either
+     * declared by a {@link TraceSetBuilder}, or derived from an earlier trace.
+     * @param title the title of the trace
+     * @param samples the encoded samples of the trace, between the position and the limit of the buffer.
+     *                The position of the buffer is not changed.
+     * @param parameters the parameters of the trace
+     * @throws IOException if any write error occurs
+     * @throws TRSFormatException if the formatting of the trace is invalid
+     * @throws IllegalArgumentException if the trace does not match the layout of the trace set
+     * @throws IllegalStateException if the layout of the trace set is not known yet, or traces have been added with
+     * {@link #addAsync(Trace)}
+     */
+    public void add(String title, ByteBuffer samples, TraceParameterMap parameters) throws IOException, TRSFormatException {
+        checkWritable();
+        checkSynchronous();
+        if (firstTrace) throw new IllegalStateException(LAYOUT_NOT_KNOWN);
+        int sampleSize = Encoding.fromValue(layout.getSampleCoding()).getSize();
+        if (samples.remaining() % sampleSize != 0) {
+            throw new IllegalArgumentException(String.format(PARTIAL_SAMPLE, samples.remaining(), sampleSize));
+        }
+        write(title, parameters, samples.remaining() / sampleSize, target -> SampleCodec.encode(samples, target));
+    }
+
+    /**
+     * Add a trace to a writable TraceSet on a background thread. The trace is handed to the background thread through
+     * a bounded queue, so the caller does not wait for the file system unless the queue is full. What happens then is
+     * decided by the policy set with {@link #setAsyncQueue(int, QueuePolicy)}, which waits for room by default.
+     * Traces added asynchronously are added in order, and should not be modified afterwards. Closing the trace set
+     * waits until all queued traces have been added, and rejects traces added while it is being closed. Once a trace
+     * has been added asynchronously, traces can no longer be added directly with {@link #add(Trace)}.
+     * @param trace the Trace object to add
+     * @return a future which completes when the trace has been added. It completes exceptionally if the trace is
+     * invalid, or if it was rejected because the queue was full. It is cancelled if the trace was dropped.
+     * @throws IllegalArgumentException if this trace set is not open for writing
+     */
+    public CompletableFuture<Void> addAsync(Trace trace) {
+        checkWritable();
+        AsyncTraceWriter writer;
+        synchronized (this) {
+            //closing reads the writer under the same lock, so it either sees the writer, or no writer is started
+            if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+            if (asyncWriter == null) {
+                asyncWriter = new AsyncTraceWriter(this, asyncCapacity, asyncPolicy);
+            }
+            writer = asyncWriter;
+        }
+        return writer.submit(trace);
+    }
+
+    /**
+     * Configure the queue used by {@link #addAsync(Trace)}. This should be done before the first trace is added
+     * asynchronously.
+     * @param capacity the maximum number of traces waiting to be added, by default 1024
+     * @param policy what to do with a trace while the queue is full, by default {@link QueuePolicy#BLOCK}
+     * @throws IllegalArgumentException if the capacity is not positive
+     * @throws IllegalStateException if a trace has already been added asynchronously
+     */
+    public synchronized void setAsyncQueue(int capacity, QueuePolicy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException(String.format(INVALID_QUEUE_SIZE, capacity));
+        if (asyncWriter != null) throw new IllegalStateException(ASYNC_WRITER_STARTED);
+        this.asyncCapacity = capacity;
+        this.asyncPolicy = policy;
+    }
+
+    /**
+     * @return the current statistics of the background writer used by {@link #addAsync(Trace)}, or null if no trace
+     * has been added asynchronously
+     */
+    public synchronized AsyncWriteStatistics getAsyncStatistics() {
+        return asyncWriter == null ? null : asyncWriter.statistics();
+    }
+
+    /**
+     * Add a trace without checking whether the trace set is open, which is used to finish the asynchronous writes
+     * while closing
+     */
+    void write(Trace trace) throws IOException, TRSFormatException {
+        initializeWriter(trace);
+        reserve(layout.getTraceSize());
+        encodeTrace(trace, parameterEncoder, writeBuffer);
+        incrementNumberOfTraces();
+    }
+
+    private void write(String title, TraceParameterMap parameters, int numberOfSamples, SampleEncoder samples)
+            throws IOException, TRSFormatException {
+        reserve(layout.getTraceSize());
+        String fittedTitle = fitUtf8StringToByteLength(title, layout.getTitleSpace());
+        encodeRecord(fittedTitle, parameters, numberOfSamples, parameterEncoder, writeBuffer, samples);
+        incrementNumberOfTraces();
+    }
+
+    /**
+     * Create a writer which encodes traces on several threads, and adds them to this trace set in a deterministic order.
+     * Traces should not be added to this trace set directly while the writer is in use.
+     * @param threads the number of threads encoding traces
+     * @param order the order in which the encoded traces are added to the file
+     * @return a new concurrent writer adding traces to this trace set
+     * @throws IllegalArgumentException if this trace set is not open for writing, or the number of threads is not positive
+     */
+    public ConcurrentTraceWriter concurrentWriter(int threads, ConcurrentTraceWriter.CommitOrder order) {
+        checkWritable();
+        return new ConcurrentTraceWriter(this, threads, order);
+    }
+
+    private void checkWritable() {
         if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
         if (!writing) throw new IllegalArgumentException(TRACE_SET_IN_READ_MODE);
-        if (firstTrace) {
-            int dataLength = trace.getData() == null ? 0 : trace.getData().length;
-            int titleLength = trace.getTitle() == null ? 0 : trace.getTitle().getBytes(StandardCharsets.UTF_8).length;
-            metaData.put(NUMBER_OF_SAMPLES, trace.getNumberOfSamples(), false);
-            metaData.put(DATA_LENGTH, dataLength, false);
-            metaData.put(TITLE_SPACE, titleLength, false);
-            metaData.put(SAMPLE_CODING, trace.getPreferredCoding(), false);
-            metaData.put(TRACE_PARAMETER_DEFINITIONS, TraceParameterDefinitionMap.createFrom(trace.getParameters()));
-            TRSMetaDataUtils.writeTRSMetaData(writeStream, metaData);
-            firstTrace = false;
-        }
-        truncateStrings(trace, metaData);
-        checkValid(trace);
+    }
 
+    private void checkSynchronous() {
+        if (asyncWriter != null) throw new IllegalStateException(ASYNC_WRITER_IN_USE);
+    }
+
+    /**
+     * Complete the metadata based on the first trace, and put the header in the write buffer. This has no effect once
+     * the first trace has been seen. Afterwards, the layout of every trace is fixed.
+     * @param trace the first trace added to this trace set
+     */
+    void initializeWriter(Trace trace) throws IOException, TRSFormatException {
+        if (!firstTrace) return;
+        initializeWriter(trace.getTitle(), trace.getNumberOfSamples(), trace.getPreferredCoding(), trace.getParameters());
+    }
+
+    private void initializeWriter(String title, int numberOfSamples, int sampleCoding, TraceParameterMap parameters)
+            throws IOException, TRSFormatException {
+        if (!firstTrace) return;
+        TraceParameterDefinitionMap definitions = TraceParameterDefinitionMap.createFrom(parameters);
+        int titleLength = title == null ? 0 : title.getBytes(StandardCharsets.UTF_8).length;
+        metaData.put(NUMBER_OF_SAMPLES, numberOfSamples, false);
+        metaData.put(DATA_LENGTH, definitions.totalSize(), false);
+        metaData.put(TITLE_SPACE, titleLength, false);
+        metaData.put(SAMPLE_CODING, sampleCoding, false);
+        metaData.put(TRACE_PARAMETER_DEFINITIONS, definitions);
+        startWriting(0);
+    }
+
+    /**
+     * Fix the layout of every trace based on the metadata, and put the header in the write buffer. This is done when
+     * the first trace is added, unless the layout has been declared up front by a {@link TraceSetBuilder}.
+     * @param expectedTraces the number of traces the file is expected to hold, to whose size the file is extended up
+     * front, or zero if unknown
+     */
+    void startWriting(int expectedTraces) throws IOException, TRSFormatException {
+        ByteBuffer header = serializeMetaData();
+        fixLayout(header.remaining());
+        long expectedSize = layout.getHeaderSize() + layout.getTraceSize() * expectedTraces;
+        if (expectedTraces > 0) {
+            //this only sets the length of the file: the skipped bytes are left as a hole, so no space is reserved
+            //on the storage device, and the file may still end up fragmented
+            writeChannel.write(ByteBuffer.allocate(1), expectedSize - 1);
+        }
+        if (mapWrites) {
+            mappedBuffer = new MappedWriteBuffer(writeChannel, expectedSize, writeBufferSize, path.getFileName().toString());
+        }
+        reserve(header.remaining());
+        writeBuffer.put(header);
+    }
+
+    private void fixLayout(long headerSize) {
+        layout = TraceSetLayout.of(headerSize, metaData);
+        parameterDefinitions = metaData.getTraceParameterDefinitions();
+        parameterEncoder = new TraceParameterEncoder(parameterDefinitions);
+        firstTrace = false;
+    }
+
+    /**
+     * @return the number of bytes of a single encoded trace, which is known once the first trace has been added
+     */
+    long encodedTraceSize() {
+        return layout.getTraceSize();
+    }
+
+    /**
+     * @return a new parameter encoder for the traces of this trace set, for use by a single thread
+     */
+    TraceParameterEncoder newParameterEncoder() {
+        return new TraceParameterEncoder(parameterDefinitions);
+    }
+
+    /**
+     * Encode a trace into a buffer, directly after the data already in it. The buffer should have room for a full
+     * trace. If the trace cannot be encoded, the buffer is left unchanged. This only depends on the layout fixed by
+     * {@link #initializeWriter(Trace)}, so it can be called by multiple threads, each with its own encoder and buffer.
+     * @param trace the trace to encode
+     * @param encoder the parameter encoder of the calling thread
+     * @param target the little endian buffer to write to
+     */
+    void encodeTrace(Trace trace, TraceParameterEncoder encoder, ByteBuffer target) throws TRSFormatException {
+        trace.setTitle(fitUtf8StringToByteLength(trace.getTitle(), layout.getTitleSpace()));
         trace.setTraceSet(this);
-        writeTrace(trace);
+        Encoding encoding = Encoding.fromValue(layout.getSampleCoding());
+        encodeRecord(trace.getTitle(), trace.getParameters(), trace.getNumberOfSamples(), encoder, target,
+                buffer -> SampleCodec.encode(trace.getSample(), encoding, buffer));
+    }
+
+    /**
+     * Encode the parts of a trace into a buffer, directly after the data already in it.
+     * If the trace cannot be encoded, the buffer is left unchanged.
+     * @param title the title of the trace, which already fits in the title space
+     * @param parameters the parameters of the trace
+     * @param numberOfSamples the number of samples of the trace
+     * @param encoder the parameter encoder of the calling thread
+     * @param target the little endian buffer to write to
+     * @param samples writes the samples of the trace to the buffer
+     */
+    private void encodeRecord(String title, TraceParameterMap parameters, int numberOfSamples,
+                              TraceParameterEncoder encoder, ByteBuffer target, SampleEncoder samples) throws TRSFormatException {
+        truncateStrings(parameters);
+        checkValid(numberOfSamples, encoder);
+
+        byte[] titleBytes = (title == null ? "" : title).getBytes(StandardCharsets.UTF_8);
+        int start = target.position();
+        try {
+            target.put(titleBytes);
+            for (int k = titleBytes.length; k < layout.getTitleSpace(); k++) {
+                target.put((byte) 0);
+            }
+            encoder.encode(parameters, target, target.position());
+            target.position(target.position() + encoder.totalSize());
+            samples.write(target);
+        } catch (RuntimeException | TRSFormatException ex) {
+            target.position(start);
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the samples of a single trace to a buffer
+     */
+    private interface SampleEncoder {
+        void write(ByteBuffer target) throws TRSFormatException;
+    }
 
+    /**
+     * Add a trace that has already been encoded by {@link #encodeTrace(Trace, TraceParameterEncoder, ByteBuffer)}
+     * @param record a buffer containing exactly one encoded trace
+     */
+    void addEncoded(ByteBuffer record) throws IOException {
+        reserve(record.remaining());
+        writeBuffer.put(record);
+        incrementNumberOfTraces();
+    }
+
+    private void incrementNumberOfTraces() {
         int numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
         metaData.put(NUMBER_OF_TRACES, numberOfTraces + 1);
     }
 
     /**
-     * This method makes sure that the trace title and any added string parameters adhere to the preset maximum length
-     * @param trace the trace to update
-     * @param metaData the metadata specifying the maximum string lengths
+     * This method makes sure that any added string parameters adhere to the preset maximum length
+     * @param parameters the parameters to update
      */
-    private void truncateStrings(Trace trace, TRSMetaData metaData) {
-        int titleSpace = metaData.getInt(TITLE_SPACE);
-        trace.setTitle(fitUtf8StringToByteLength(trace.getTitle(), titleSpace));
-        TraceParameterDefinitionMap traceParameterDefinitionMap = metaData.getTraceParameterDefinitions();
-        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> definition : traceParameterDefinitionMap.entrySet()) {
+    private void truncateStrings(TraceParameterMap parameters) {
+        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> definition : parameterDefinitions.entrySet()) {
             TraceParameterDefinition<TraceParameter> value = definition.getValue();
             String key = definition.getKey();
-            if (value.getType() == ParameterType.STRING) {
+            TraceParameter parameter = parameters.get(key);
+            //parameters that are missing or of the wrong type are reported when the parameters are encoded
+            if (value.getType() == ParameterType.STRING && parameter instanceof StringParameter) {
                 short stringLength = value.getLength();
-                String stringValue = ((StringParameter) trace.getParameters().get(key)).getValue();
+                String stringValue = ((StringParameter) parameter).getValue();
                 if (stringLength != stringValue.getBytes(StandardCharsets.UTF_8).length) {
-                    trace.getParameters().put(key, fitUtf8StringToByteLength(stringValue, stringLength));
+                    parameters.put(key, fitUtf8StringToByteLength(stringValue, stringLength));
                 }
             }
         }
@@ -232,79 +1340,56 @@ public class TraceSet implements AutoCloseable {
      * @param s the string to fit
      * @param maxBytes the number of bytes required
      */
-    private String fitUtf8StringToByteLength(String s, int maxBytes) {
+    private static String fitUtf8StringToByteLength(String s, int maxBytes) {
         if (s == null) {
             return null;
         }
         byte[] sba = s.getBytes(StandardCharsets.UTF_8);
-        if (sba.length <= maxBytes) {
+        if (sba.length == maxBytes) {
+            return s;
+        }
+        if (sba.length < maxBytes) {
             return new String(Arrays.copyOf(sba, maxBytes));
         }
         // Ensure truncation by having byte buffer = maxBytes
         ByteBuffer bb = ByteBuffer.wrap(sba, 0, maxBytes);
         CharBuffer cb = CharBuffer.allocate(maxBytes);
-        // Ignore an incomplete character
-        UTF8_DECODER.reset();
-        UTF8_DECODER.onMalformedInput(CodingErrorAction.IGNORE);
-        UTF8_DECODER.decode(bb, cb, true);
-        UTF8_DECODER.flush(cb);
+        // Ignore an incomplete character. A new decoder is used, since traces may be encoded by several threads.
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.IGNORE);
+        decoder.decode(bb, cb, true);
+        decoder.flush(cb);
         return new String(cb.array(), 0, cb.position());
     }
 
-    private void writeTrace(Trace trace) throws TRSFormatException, IOException {
-        String title = trace.getTitle() == null ? "" : trace.getTitle();
-        writeStream.write(title.getBytes(StandardCharsets.UTF_8));
-        byte[] data = trace.getData() == null ? new byte[0] : trace.getData();
-        writeStream.write(data);
-        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
-        writeStream.write(toByteArray(trace.getSample(), encoding));
-    }
-
-    private byte[] toByteArray(float[] samples, Encoding encoding) throws TRSFormatException {
-        byte[] result;
-        switch (encoding) {
-            case ILLEGAL:
-                throw new TRSFormatException("Illegal sample encoding");
-            case BYTE:
-                result = new byte[samples.length];
-                for (int k = 0; k < samples.length; k++) {
-                    if (samples[k] != (byte)samples[k]) throw new IllegalArgumentException("Byte sample encoding too small");
-                    result[k] = (byte) samples[k];
-                }
-                break;
-            case SHORT:
-                result = new byte[samples.length * 2];
-                for (int k = 0; k < samples.length; k++) {
-                    if (samples[k] != (short)samples[k]) throw new IllegalArgumentException("Short sample encoding too small");
-                    short value = (short) samples[k];
-                    result[2*k] = (byte) value;
-                    result[2*k + 1] = (byte) (value >> 8);
-                }
-                break;
-            case INT:
-                result = new byte[samples.length * 4];
-                for (int k = 0; k < samples.length; k++) {
-                    int value = (int) samples[k];
-                    result[4*k] = (byte) value;
-                    result[4*k + 1] = (byte) (value >> 8);
-                    result[4*k + 2] = (byte) (value >> 16);
-                    result[4*k + 3] = (byte) (value >> 24);
-                }
-                break;
-            case FLOAT:
-                result = new byte[samples.length * 4];
-                for (int k = 0; k < samples.length; k++) {
-                    int value = Float.floatToIntBits(samples[k]);
-                    result[4*k] = (byte) value;
-                    result[4*k + 1] = (byte) (value >> 8);
-                    result[4*k + 2] = (byte) (value >> 16);
-                    result[4*k + 3] = (byte) (value >> 24);
-                }
-                break;
-            default:
-                throw new TRSFormatException(String.format("Sample encoding not supported: %s", encoding.name()));
+    /**
+     * Make sure the write buffer has room for the requested number of bytes, by writing the buffered traces to the file
+     * if necessary. The buffer is only enlarged if a single trace does not fit in it.
+     * @param size the number of bytes that should fit in the buffer
+     */
+    private void reserve(long size) throws IOException {
+        if (writeBuffer.remaining() >= size) return;
+        if (mappedBuffer != null) {
+            writeBuffer = mappedBuffer.next(size);
+            return;
+        }
+        flushWriteBuffer();
+        if (writeBuffer.capacity() < size) {
+            writeBuffer = ByteBuffer.allocateDirect(Math.toIntExact(Math.max(size, writeBufferSize))).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            writeChannel.write(writeBuffer);
         }
-        return result;
+        writeBuffer.clear();
+    }
+
+    private ByteBuffer serializeMetaData() throws IOException, TRSFormatException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        TRSMetaDataUtils.writeTRSMetaData(header, metaData);
+        return ByteBuffer.wrap(header.toByteArray());
     }
 
     @Override
@@ -314,42 +1399,75 @@ public class TraceSet implements AutoCloseable {
         else closeReader();
     }
 
-    private void checkValid(Trace trace) {
-        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
-        if (metaData.getInt(NUMBER_OF_SAMPLES) != trace.getNumberOfSamples()) {
+    private void checkValid(int traceNumberOfSamples, TraceParameterEncoder encoder) {
+        int numberOfSamples = layout.getNumberOfSamples();
+        if (numberOfSamples != traceNumberOfSamples) {
             throw new IllegalArgumentException(String.format(TRACE_LENGTH_DIFFERS,
-                    trace.getNumberOfSamples(),
+                    traceNumberOfSamples,
                     numberOfSamples));
         }
 
-        int dataLength = metaData.getInt(DATA_LENGTH);
-        int traceDataLength = trace.getData() == null ? 0 : trace.getData().length;
-        if (metaData.getInt(DATA_LENGTH) != traceDataLength) {
+        //the parameters themselves are validated against their definitions while they are encoded
+        int dataLength = layout.getDataLength();
+        if (dataLength != encoder.totalSize()) {
             throw new IllegalArgumentException(String.format(TRACE_DATA_LENGTH_DIFFERS,
-                    traceDataLength,
+                    encoder.totalSize(),
                     dataLength));
         }
-
-        for (Map.Entry<String, TraceParameter> entry : trace.getParameters().entrySet()) {
-            if (!metaData.getTraceParameterDefinitions().containsKey(entry.getKey())) {
-                throw new IllegalArgumentException(String.format(PARAMETER_NOT_DEFINED, entry.getKey()));
-            }
-        }
     }
 
     private void closeReader() throws IOException {
-        buffer = null;
-        readStream.close();
+        try {
+            synchronized (this) {
+                if (readAhead != null) readAhead.shutdownNow();
+            }
+            SegmentTable table = this.segments;
+            if (editing && table != null) table.force();
+        } finally {
+            synchronized (this) {
+                segments = null;
+            }
+            channel.close();
+        }
     }
 
     private void closeWriter() throws IOException, TRSFormatException {
         try {
-            //reset writer to start of file and overwrite header
-            writeStream.getChannel().position(0);
-            TRSMetaDataUtils.writeTRSMetaData(writeStream, metaData);
-            writeStream.flush();
+            AsyncTraceWriter async;
+            synchronized (this) {
+                async = asyncWriter;
+            }
+            if (async != null) async.close();
+            long end;
+            if (mappedBuffer != null) {
+                //the windows are unmapped, so the last one should no longer be used as the write buffer
+                writeBuffer = EMPTY_BUFFER;
+                end = mappedBuffer.close();
+            } else {
+                flushWriteBuffer();
+                end = writeChannel.position();
+            }
+            //cut off the length extended up front for traces that were never written
+            if (writeChannel.size() > end) {
+                writeChannel.truncate(end);
+            }
+            if (numberOfTracesOffset >= 0) {
+                //the rest of the existing header is left untouched when appending
+                ByteBuffer numberOfTraces = ByteBuffer.allocate(NUMBER_OF_TRACES.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+                numberOfTraces.putInt(0, metaData.getInt(NUMBER_OF_TRACES));
+                writeFully(numberOfTraces, numberOfTracesOffset);
+            } else {
+                //overwrite the header at the start of the file, now that the number of traces is known
+                writeFully(serializeMetaData(), 0);
+            }
         } finally {
-            writeStream.close();
+            writeChannel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += writeChannel.write(buffer, position);
         }
     }
 
@@ -361,80 +1479,126 @@ public class TraceSet implements AutoCloseable {
         return metaData;
     }
 
-    protected String readTraceTitle() {
-        byte[] titleArray = new byte[metaData.getInt(TITLE_SPACE)];
-        buffer.get(titleArray);
-        return new String(titleArray);
-    }
+    /**
+     * An immutable mapping of a part of the file. Reading threads never move the position of the mapped buffer itself,
+     * but work on their own view of it instead.
+     */
+    static final class MappedSegment {
+        final long start;                   //the byte index of the file where the segment starts
+        private final MappedByteBuffer buffer;  //the mapped bytes of the segment
 
-    protected byte[] readData() {
-        int inputSize = metaData.getInt(DATA_LENGTH);
-        byte[] comDataArray = new byte[inputSize];
-        buffer.get(comDataArray);
-        return comDataArray;
-    }
+        private MappedSegment(long start, MappedByteBuffer buffer) {
+            this.start = start;
+            this.buffer = buffer;
+        }
 
-    protected float[] readSamples() throws TRSFormatException {
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
-        float[] samples;
-        switch (Encoding.fromValue(metaData.getInt(SAMPLE_CODING))) {
-            case BYTE:
-                byte[] byteData = new byte[numberOfSamples];
-                buffer.get(byteData);
-                samples = toFloatArray(byteData);
-                break;
-            case SHORT:
-                ShortBuffer shortView = buffer.asShortBuffer();
-                short[] shortData = new short[numberOfSamples];
-                shortView.get(shortData);
-                samples = toFloatArray(shortData);
-                break;
-            case FLOAT:
-                FloatBuffer floatView = buffer.asFloatBuffer();
-                samples = new float[numberOfSamples];
-                floatView.get(samples);
-                break;
-            case INT:
-                IntBuffer intView = buffer.asIntBuffer();
-                int[] intData = new int[numberOfSamples];
-                intView.get(intData);
-                samples = toFloatArray(intData);
-                break;
-            default:
-                throw new TRSFormatException(String.format(UNKNOWN_SAMPLE_CODING, metaData.getInt(SAMPLE_CODING)));
+        boolean contains(long from, long to) {
+            return this.start <= from && to <= end();
         }
 
-        return samples;
-    }
+        /**
+         * @return the byte index of the file directly after the end of the segment
+         */
+        long end() {
+            return this.start + this.buffer.capacity();
+        }
 
-    private float[] toFloatArray(byte[] numbers) {
-        float[] result = new float[numbers.length];
-        for (int k = 0; k < numbers.length; k++) {
-            result[k] = numbers[k];
+        /**
+         * @return a new view of the segment with its own position, limit and byte order
+         */
+        ByteBuffer view() {
+            return buffer.duplicate();
         }
-        return result;
-    }
 
-    private float[] toFloatArray(int[] numbers) {
-        float[] result = new float[numbers.length];
-        for (int k = 0; k < numbers.length; k++) {
-            result[k] = (float) numbers[k];
+        /**
+         * Write any modifications of a segment mapped for editing to the storage device
+         */
+        void force() {
+            buffer.force();
         }
-        return result;
     }
 
-    private float[] toFloatArray(short[] numbers) {
-        float[] result = new float[numbers.length];
-        for (int k = 0; k < numbers.length; k++) {
-            result[k] = numbers[k];
+    /**
+     * The traces of a file are divided into fixed-size, trace-aligned segments, which each hold as many complete traces
+     * as fit in a single mapped buffer. The segment of any trace is found by a single division, and every segment is
+     * only mapped once, so random access across the whole file does not cause any remapping after warm-up.
+     */
+    private static final class SegmentTable {
+        private final FileChannel channel;
+        private final TraceSetLayout layout;
+        private final long traceSize;
+        private final int numberOfTraces;
+        private final int tracesPerSegment;
+        private final AtomicReferenceArray<MappedSegment> segments;
+        private final FileChannel.MapMode mode;
+
+        private SegmentTable(FileChannel channel, TraceSetLayout layout, long maxSegmentSize, FileChannel.MapMode mode) throws IOException {
+            long traceSize = layout.getTraceSize();
+            int numberOfTraces = layout.getNumberOfTraces();
+            if (traceSize > maxSegmentSize) {
+                throw new IOException(String.format(TRACE_TOO_LARGE, traceSize, maxSegmentSize));
+            }
+            this.channel = channel;
+            this.layout = layout;
+            this.traceSize = traceSize;
+            this.numberOfTraces = numberOfTraces;
+            this.tracesPerSegment = tracesPerSegment(traceSize, maxSegmentSize);
+            this.segments = new AtomicReferenceArray<>(numberOfTraces == 0 ? 0 : 1 + (numberOfTraces - 1) / tracesPerSegment);
+            this.mode = mode;
         }
-        return result;
+
+        /**
+         * @return the number of complete traces that fit in a single segment
+         */
+        private static int tracesPerSegment(long traceSize, long maxSegmentSize) {
+            return traceSize == 0 ? Integer.MAX_VALUE : (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxSegmentSize / traceSize));
+        }
+
+        private MappedSegment segmentFor(int traceIndex) throws IOException {
+            int segmentIndex = traceIndex / tracesPerSegment;
+            MappedSegment segment = segments.get(segmentIndex);
+            if (segment == null) {
+                int firstTrace = segmentIndex * tracesPerSegment;
+                long tracesInSegment = Math.min(tracesPerSegment, numberOfTraces - firstTrace);
+                long start = layout.traceOffset(firstTrace);
+                segment = new MappedSegment(start, channel.map(mode, start, tracesInSegment * traceSize));
+                //if another thread mapped the same segment in the meantime, use that one instead
+                if (!segments.compareAndSet(segmentIndex, null, segment)) {
+                    segment = segments.get(segmentIndex);
+                }
+            }
+            return segment;
+        }
+
+        /**
+         * Write any modifications of the segments mapped so far to the storage device
+         */
+        private void force() {
+            for (int k = 0; k < segments.length(); k++) {
+                MappedSegment segment = segments.get(k);
+                if (segment != null) segment.force();
+            }
+        }
+    }
+
+    /**
+     * Factory method. This creates a new open TraceSet for reading.
+     * The resulting TraceSet is a live view on the file, and loads from the file directly.
+     * A TraceSet opened for reading can be shared between threads.
+     * @param file the path to the TRS file to open
+     * @param maxSegmentSize the maximum number of bytes to map in a single segment
+     * @return the TraceSet representation of the file
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    static TraceSet open(String file, long maxSegmentSize) throws IOException, TRSFormatException {
+        return new TraceSet(file, maxSegmentSize, false);
     }
 
     /**
      * Factory method. This creates a new open TraceSet for reading.
      * The resulting TraceSet is a live view on the file, and loads from the file directly.
+     * A TraceSet opened for reading can be shared between threads.
      * Remember to close the TraceSet when done.
      * @param file the path to the TRS file to open
      * @return the TraceSet representation of the file
@@ -442,7 +1606,69 @@ public class TraceSet implements AutoCloseable {
      * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
      */
     public static TraceSet open(String file) throws IOException, TRSFormatException {
-        return new TraceSet(file);
+        return new TraceSet(file, MAX_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Factory method. This opens an existing trace set, of which the samples and parameters of the traces can be
+     * modified in place with {@link #setSamples(int, float[])} and {@link #setParameter(int, String, TraceParameter)}.
+     * The file is mapped for reading and writing, so no copy of the trace set is made, and only the modified pages
+     * are written back. The layout of the trace set, including its number of traces, cannot be changed.
+     * The traces can be read as from a trace set opened with {@link #open(String)}.
+     * Remember to close the TraceSet when done, which writes all modifications to the storage device.
+     * @param file the path to the TRS file to open
+     * @return the TraceSet representation of the file
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static TraceSet openForEdit(String file) throws IOException, TRSFormatException {
+        return new TraceSet(file, MAX_BUFFER_SIZE, true);
+    }
+
+    /**
+     * Open an existing trace set file to add more traces to it. The layout of the traces is read from the header of
+     * the file, and every added trace should match it: the same number of samples, and the same parameters. Titles are
+     * truncated to the stored title space, and samples are stored in the stored sample coding.
+     * New traces are written after the existing ones. When the trace set is closed, only the number of traces is
+     * updated in the header; the rest of the file is not rewritten.
+     * @param file the path to the TRS file to append to
+     * @return a writable trace set object, which already contains the traces of the file
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when the header of the file is incorrectly formatted, or its layout is not fully
+     * described: the number of traces should be present, and the trace data should consist of declared parameters
+     * @throws IllegalStateException if the size of the file does not match its header, as for a file that is still
+     * being written
+     */
+    public static TraceSet openForAppend(String file) throws IOException, TRSFormatException {
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, Math.min(fileSize, MAX_BUFFER_SIZE));
+            TRSMetaData metaData = TRSMetaDataUtils.readTRSMetaData(header);
+            TraceSetLayout layout = TraceSetLayout.of(header.position(), metaData);
+            if (layout.getEncoding() == Encoding.ILLEGAL) {
+                throw new TRSFormatException(String.format(UNKNOWN_SAMPLE_CODING, layout.getSampleCoding()));
+            }
+            if (fileSize != layout.getFileSize()) {
+                String msg = String.format(ERROR_READING_FILE, fileSize, layout.getHeaderSize(), layout.getTraceSize(), layout.getNumberOfTraces());
+                throw new IllegalStateException(msg);
+            }
+            if (metaData.getTraceParameterDefinitions().totalSize() != metaData.getInt(DATA_LENGTH)) {
+                throw new TRSFormatException(String.format(DATA_NOT_DEFINED, metaData.getInt(DATA_LENGTH)));
+            }
+            int numberOfTracesOffset = TRSMetaDataUtils.findTagValue(header, NUMBER_OF_TRACES);
+            if (numberOfTracesOffset < 0) {
+                throw new TRSFormatException(NUMBER_OF_TRACES_MISSING);
+            }
+            channel.position(fileSize);
+            TraceSet traceSet = new TraceSet(file, metaData, channel, DEFAULT_WRITE_BUFFER_SIZE);
+            traceSet.fixLayout(header.position());
+            traceSet.numberOfTracesOffset = numberOfTracesOffset;
+            return traceSet;
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
     }
 
     /**
@@ -507,7 +1733,58 @@ public class TraceSet implements AutoCloseable {
      * @throws IOException if the file creation failed
      */
     public static TraceSet create(String file, TRSMetaData metaData) throws IOException {
+        return create(file, metaData, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Start building a new traceset file at the specified location, with a layout that is declared up front instead
+     * of inferred from the first trace. See {@link TraceSetBuilder}.
+     * @param file the path to the file to be created
+     * @return a builder for the new trace set
+     */
+    public static TraceSetBuilder builder(String file) {
+        return new TraceSetBuilder(file);
+    }
+
+    /**
+     * Create a new traceset file at the specified location, using a write buffer of the given size.
+     * Traces are encoded into the buffer, and the buffer is written to the file in one go when it is full.
+     * Larger buffers mean fewer, larger writes. <br>
+     * NOTE: The supplied metadata is leading, and is not overwritten.
+     * Please make sure that the supplied values are correct <br>
+     * @param file the path to the file to be created
+     * @param metaData the user-supplied meta data
+     * @param bufferSize the number of bytes buffered before they are written to the file
+     * @return a writable trace set object
+     * @throws IOException if the file creation failed
+     * @throws IllegalArgumentException if the buffer size is not positive
+     */
+    public static TraceSet create(String file, TRSMetaData metaData, int bufferSize) throws IOException {
+        if (bufferSize <= 0) throw new IllegalArgumentException(String.format(INVALID_BUFFER_SIZE, bufferSize));
+        metaData.put(TRS_VERSION, 2, false);
+        return new TraceSet(file, metaData, bufferSize);
+    }
+
+    /**
+     * Create a new traceset file at the specified location, which is written through memory mapped windows of the
+     * file instead of through a write buffer. The header and the traces are encoded straight into the mapped memory,
+     * and the pages of every completed window are forced to the storage device in the background.
+     * Use {@link TraceSetBuilder#memoryMapped()} to create such a trace set.
+     * @param file the path to the file to be created
+     * @param metaData the user-supplied meta data
+     * @param windowSize the maximum number of bytes mapped at a time
+     * @return a writable trace set object
+     * @throws IOException if the file creation failed
+     * @throws IllegalArgumentException if the window size is not positive
+     */
+    static TraceSet createMapped(String file, TRSMetaData metaData, int windowSize) throws IOException {
+        if (windowSize <= 0) throw new IllegalArgumentException(String.format(INVALID_BUFFER_SIZE, windowSize));
         metaData.put(TRS_VERSION, 2, false);
-        return new TraceSet(file, metaData);
+        //mapping a file for writing requires a channel that can also read
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        TraceSet traceSet = new TraceSet(file, metaData, channel, windowSize);
+        traceSet.mapWrites = true;
+        return traceSet;
     }
 }
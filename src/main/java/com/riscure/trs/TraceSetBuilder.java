@@ -0,0 +1,197 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * TraceSetBuilder creates a writable trace set with a layout that is declared up front:
+ * <pre>
+ *     TraceSet traceSet = TraceSet.builder("capture.trs")
+ *             .numberOfSamples(10000)
+ *             .sampleCoding(Encoding.SHORT)
+ *             .titleSpace(16)
+ *             .parameter("INPUT", ParameterType.BYTE, 16)
+ *             .expectedTraces(100000)
+ *             .create();
+ * </pre>
+ * Since nothing needs to be inferred from the first trace, adding a trace only checks its lengths against the
+ * declared layout. Samples are not scanned to find a suitable encoding, and the parameter definitions are not derived
+ * from the parameters of the trace.
+ */
+public class TraceSetBuilder {
+    private static final String NOT_DECLARED = "The %s of the trace set has not been declared";
+    private static final String NEGATIVE_VALUE = "The %s should not be negative, but was %d";
+    private static final String ILLEGAL_ENCODING = "Traces cannot be stored with sample coding %s";
+    private static final String DUPLICATE_PARAMETER = "Parameter %s has already been declared";
+    private static final String TOO_LARGE = "The %s should be at most %d, but was %d";
+
+    private final String file;
+    private TRSMetaData metaData = TRSMetaData.create();
+    private Integer numberOfSamples;
+    private Encoding sampleCoding;
+    private int titleSpace;
+    private final TraceParameterDefinitionMap definitions = new TraceParameterDefinitionMap();
+    private int expectedTraces;
+    private Integer bufferSize;
+    private boolean memoryMapped;
+
+    TraceSetBuilder(String file) {
+        this.file = file;
+    }
+
+    /**
+     * @param metaData additional metadata of the trace set, like its global title. The layout declared by this builder
+     *                 overwrites the layout tags of this metadata.
+     * @return this builder
+     */
+    public TraceSetBuilder metaData(TRSMetaData metaData) {
+        this.metaData = metaData;
+        return this;
+    }
+
+    /**
+     * @param numberOfSamples the number of samples of every trace
+     * @return this builder
+     */
+    public TraceSetBuilder numberOfSamples(int numberOfSamples) {
+        this.numberOfSamples = checkNotNegative("number of samples", numberOfSamples);
+        return this;
+    }
+
+    /**
+     * @param sampleCoding the encoding in which the samples of every trace are stored
+     * @return this builder
+     */
+    public TraceSetBuilder sampleCoding(Encoding sampleCoding) {
+        if (sampleCoding == Encoding.ILLEGAL) throw new IllegalArgumentException(String.format(ILLEGAL_ENCODING, sampleCoding));
+        this.sampleCoding = sampleCoding;
+        return this;
+    }
+
+    /**
+     * @param titleSpace the number of bytes reserved for the title of every trace, zero by default
+     * @return this builder
+     */
+    public TraceSetBuilder titleSpace(int titleSpace) {
+        this.titleSpace = checkNotNegative("title space", titleSpace);
+        return this;
+    }
+
+    /**
+     * Declare a parameter of every trace, which is stored after the parameters declared before it
+     * @param name the name of the parameter
+     * @param type the type of the parameter
+     * @param length the number of values of the parameter, or the number of bytes of a string parameter
+     * @return this builder
+     * @throws IllegalArgumentException if the parameter has already been declared, or its length or offset does not
+     * fit in the parameter definitions
+     */
+    public TraceSetBuilder parameter(String name, ParameterType type, int length) {
+        if (definitions.containsKey(name)) throw new IllegalArgumentException(String.format(DUPLICATE_PARAMETER, name));
+        checkNotNegative("length of parameter " + name, length);
+        //the length and offset of a parameter are stored as shorts in the header
+        checkShort("length of parameter " + name, length);
+        int offset = checkShort("offset of parameter " + name, definitions.totalSize());
+        definitions.put(name, new TraceParameterDefinition<>(type, (short) length, (short) offset));
+        return this;
+    }
+
+    /**
+     * Declare the parameters of every trace, in addition to the parameters declared before
+     * @param definitions the definitions of the parameters, of which the offsets are ignored
+     * @return this builder
+     */
+    public TraceSetBuilder parameters(TraceParameterDefinitionMap definitions) {
+        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
+            parameter(entry.getKey(), entry.getValue().getType(), entry.getValue().getLength());
+        }
+        return this;
+    }
+
+    /**
+     * @param expectedTraces the number of traces that is expected to be added. The file is extended to the size of
+     *                       these traces when it is created, which does not reserve space on the storage device. If
+     *                       fewer traces are added, the file is truncated when it is closed. If more traces are added,
+     *                       the file simply grows.
+     * @return this builder
+     */
+    public TraceSetBuilder expectedTraces(int expectedTraces) {
+        this.expectedTraces = checkNotNegative("expected number of traces", expectedTraces);
+        return this;
+    }
+
+    /**
+     * @param bufferSize the number of bytes buffered before they are written to the file, or the number of bytes
+     *                   mapped at a time if the trace set is {@link #memoryMapped()}
+     * @return this builder
+     */
+    public TraceSetBuilder bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Write the trace set through memory mapped windows of the file, rather than through a write buffer. The header and
+     * the samples and parameters of every trace are encoded straight into the mapped memory, which saves a copy and a
+     * write call for every buffer of traces. This requires the expected number of traces to be declared, so the file
+     * can be sized once up front.
+     * @return this builder
+     */
+    public TraceSetBuilder memoryMapped() {
+        this.memoryMapped = true;
+        return this;
+    }
+
+    /**
+     * Create the trace set file, and write its header
+     * @return a new trace set, open for writing
+     * @throws IOException if creating the file failed
+     * @throws TRSFormatException if the header could not be written
+     * @throws IllegalStateException if the number of samples or the sample coding has not been declared, or the
+     * expected number of traces has not been declared for a memory mapped trace set
+     */
+    public TraceSet create() throws IOException, TRSFormatException {
+        if (numberOfSamples == null) throw new IllegalStateException(String.format(NOT_DECLARED, "number of samples"));
+        if (sampleCoding == null) throw new IllegalStateException(String.format(NOT_DECLARED, "sample coding"));
+        if (memoryMapped && expectedTraces == 0) {
+            throw new IllegalStateException(String.format(NOT_DECLARED, "expected number of traces"));
+        }
+        metaData.put(NUMBER_OF_SAMPLES, numberOfSamples);
+        metaData.put(SAMPLE_CODING, sampleCoding.getValue());
+        metaData.put(TITLE_SPACE, titleSpace);
+        metaData.put(DATA_LENGTH, definitions.totalSize());
+        metaData.put(TRACE_PARAMETER_DEFINITIONS, definitions.copy());
+        TraceSet traceSet = memoryMapped
+                ? TraceSet.createMapped(file, metaData, bufferSize != null ? bufferSize : TraceSet.DEFAULT_MAPPED_WINDOW_SIZE)
+                : TraceSet.create(file, metaData, bufferSize != null ? bufferSize : TraceSet.DEFAULT_WRITE_BUFFER_SIZE);
+        try {
+            traceSet.startWriting(expectedTraces);
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            try {
+                traceSet.close();
+            } catch (IOException | TRSFormatException | RuntimeException closeException) {
+                ex.addSuppressed(closeException);
+            }
+            throw ex;
+        }
+        return traceSet;
+    }
+
+    private static int checkNotNegative(String name, int value) {
+        if (value < 0) throw new IllegalArgumentException(String.format(NEGATIVE_VALUE, name, value));
+        return value;
+    }
+
+    private static int checkShort(String name, int value) {
+        if (value > Short.MAX_VALUE) throw new IllegalArgumentException(String.format(TOO_LARGE, name, Short.MAX_VALUE, value));
+        return value;
+    }
+}
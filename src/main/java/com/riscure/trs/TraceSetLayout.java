@@ -0,0 +1,175 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * TraceSetLayout describes where every part of a trace set is stored in its file. It is computed once from the
+ * metadata when a trace set is opened, so no metadata lookups are needed to locate a trace afterwards.
+ *
+ * Every trace is stored as a title, followed by the (parameter) data, followed by the samples.
+ * All offsets returned by this class are byte offsets, either from the start of the file or from the start of a trace.
+ * Instances are immutable, and can be shared between threads.
+ */
+public final class TraceSetLayout {
+    private final long headerSize;
+    private final int numberOfTraces;
+    private final int titleSpace;
+    private final int dataLength;
+    private final int numberOfSamples;
+    private final int sampleCoding;       //the raw sample coding value, which is kept to report unknown codings
+    private final Encoding encoding;
+    private final int version;
+    private final int parameterLength;    //the number of data bytes described by the trace parameter definitions
+    private final long traceSize;
+
+    private TraceSetLayout(long headerSize, TRSMetaData metaData) {
+        this.headerSize = headerSize;
+        this.numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
+        this.titleSpace = metaData.getInt(TITLE_SPACE);
+        this.dataLength = metaData.getInt(DATA_LENGTH);
+        this.numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        this.sampleCoding = metaData.getInt(SAMPLE_CODING);
+        this.encoding = encodingOf(sampleCoding);
+        this.version = metaData.getInt(TRS_VERSION);
+        this.parameterLength = version > 1 ? metaData.getTraceParameterDefinitions().totalSize() : dataLength;
+        this.traceSize = titleSpace + dataLength + numberOfSamples * (long) encoding.getSize();
+    }
+
+    /**
+     * Compute the layout of a trace set
+     * @param headerSize the number of bytes of the file header, which precedes the first trace
+     * @param metaData the metadata of the trace set
+     * @return the layout of the trace set described by the metadata
+     */
+    static TraceSetLayout of(long headerSize, TRSMetaData metaData) {
+        return new TraceSetLayout(headerSize, metaData);
+    }
+
+    private static Encoding encodingOf(int sampleCoding) {
+        try {
+            return Encoding.fromValue(sampleCoding);
+        } catch (IllegalArgumentException ex) {
+            return Encoding.ILLEGAL;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the file header, which is also the offset of the first trace in the file
+     */
+    public long getHeaderSize() {
+        return headerSize;
+    }
+
+    /**
+     * @return the number of traces in the trace set
+     */
+    public int getNumberOfTraces() {
+        return numberOfTraces;
+    }
+
+    /**
+     * @return the total number of bytes of a single trace
+     */
+    public long getTraceSize() {
+        return traceSize;
+    }
+
+    /**
+     * @return the number of bytes the file should have according to the metadata
+     */
+    public long getFileSize() {
+        return headerSize + traceSize * numberOfTraces;
+    }
+
+    /**
+     * @return the offset of the title within a trace, which is always zero
+     */
+    public int getTitleOffset() {
+        return 0;
+    }
+
+    /**
+     * @return the number of bytes reserved for the title of a trace
+     */
+    public int getTitleSpace() {
+        return titleSpace;
+    }
+
+    /**
+     * @return the offset of the (parameter) data within a trace
+     */
+    public int getDataOffset() {
+        return titleSpace;
+    }
+
+    /**
+     * @return the number of bytes of (parameter) data of a trace
+     */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return the number of data bytes described by the trace parameter definitions, or the full data length for
+     * legacy trace sets without parameter definitions
+     */
+    public int getParameterLength() {
+        return parameterLength;
+    }
+
+    /**
+     * @return the offset of the first sample within a trace
+     */
+    public int getSamplesOffset() {
+        return titleSpace + dataLength;
+    }
+
+    /**
+     * @return the number of samples of a trace
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * @return the encoding of the samples, or {@link Encoding#ILLEGAL} if the stored sample coding is unknown
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the sample coding value as stored in the file header
+     */
+    public int getSampleCoding() {
+        return sampleCoding;
+    }
+
+    /**
+     * @return the version of the TRS format the trace set is stored in
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the offset in the file of a trace
+     * @param index the index of the trace
+     * @return the offset in the file of the first byte of the requested trace
+     */
+    public long traceOffset(int index) {
+        return headerSize + index * traceSize;
+    }
+
+    /**
+     * Get the offset in the file of a single sample
+     * @param index the index of the trace
+     * @param sample the index of the sample within the trace
+     * @return the offset in the file of the first byte of the requested sample
+     */
+    public long sampleOffset(int index, int sample) {
+        return traceOffset(index) + getSamplesOffset() + (long) sample * encoding.getSize();
+    }
+}
@@ -0,0 +1,287 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.parameter.trace.LazyTraceParameterMap;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static com.riscure.trs.enums.TRSTag.GLOBAL_TITLE;
+
+/**
+ * TraceView is a lightweight view on the bytes of a single trace in a trace set that is opened for reading.
+ * Nothing is copied or decoded when the view is created: the title, parameters and samples are only read from the
+ * underlying file when they are requested.
+ *
+ * A view is only valid as long as the trace set it was created from is open.
+ * All methods use absolute reads, so a single view may be shared between threads.
+ */
+public class TraceView {
+    private static final String NOT_FLOAT_CODED = "A FloatBuffer view is only available for FLOAT sample coding, but the samples are coded as %s";
+    private static final String ARRAY_TOO_SMALL = "Unable to store %d samples at offset %d of an array of length %d";
+    private static final String LEGACY_DATA = "LEGACY_DATA";
+
+    private final int index;
+    private final ByteBuffer record;    //the bytes of exactly one trace, in little endian order
+    private final TraceSetLayout layout;
+    private final TRSMetaData metaData;
+    private final Encoding encoding;
+    private final int numberOfSamples;
+    private final int dataOffset;
+    private final int dataLength;
+    private final int samplesOffset;
+
+    /**
+     * @param index the index of the trace in the trace set
+     * @param record a buffer containing exactly the bytes of this trace
+     * @param layout the layout of the trace set
+     * @param metaData the metadata of the trace set
+     */
+    TraceView(int index, ByteBuffer record, TraceSetLayout layout, TRSMetaData metaData) {
+        this.index = index;
+        this.record = record.order(ByteOrder.LITTLE_ENDIAN);
+        this.layout = layout;
+        this.metaData = metaData;
+        this.encoding = layout.getEncoding();
+        this.numberOfSamples = layout.getNumberOfSamples();
+        this.dataOffset = layout.getDataOffset();
+        this.dataLength = layout.getDataLength();
+        this.samplesOffset = layout.getSamplesOffset();
+    }
+
+    /**
+     * @return the index of this trace in the trace set
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the title of this trace. If no title is stored, a title is created from the global title of the set.
+     *
+     * @return the title of this trace
+     */
+    public String getTitle() {
+        byte[] titleArray = new byte[dataOffset];
+        region(0, dataOffset).get(titleArray);
+        String title = new String(titleArray);
+        if (title.trim().isEmpty()) {
+            title = String.format("%s %d", metaData.getString(GLOBAL_TITLE), index);
+        }
+        return title;
+    }
+
+    /**
+     * @return a copy of the raw (crypto) data of this trace
+     */
+    public byte[] getData() {
+        byte[] data = new byte[dataLength];
+        region(dataOffset, dataLength).get(data);
+        return data;
+    }
+
+    /**
+     * Decode the parameters of this trace.
+     *
+     * @return a new unmodifiable map containing the parameters of this trace, which are decoded when first requested
+     * @throws RuntimeException if the stored data does not match the parameter definitions of the trace set
+     */
+    public TraceParameterMap getParameters() {
+        if (layout.getVersion() > 1) {
+            TraceParameterDefinitionMap traceParameterDefinitionMap = metaData.getTraceParameterDefinitions();
+            byte[] data = new byte[layout.getParameterLength()];
+            region(dataOffset, data.length).get(data);
+            return LazyTraceParameterMap.of(data, traceParameterDefinitionMap);
+        }
+        //legacy mode
+        byte[] data = getData();
+        TraceParameterMap traceParameterMap = new TraceParameterMap();
+        if (data.length > 0) {
+            traceParameterMap.put(LEGACY_DATA, data);
+        }
+        return traceParameterMap;
+    }
+
+    /**
+     * @return the encoding in which the samples of this trace are stored
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of samples in this trace
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * Decode a single sample of this trace
+     *
+     * @param sampleIndex the index of the sample to read
+     * @return the value of the requested sample
+     * @throws IndexOutOfBoundsException if the sample index is not within this trace
+     */
+    public float getSample(int sampleIndex) {
+        if (sampleIndex < 0 || sampleIndex >= numberOfSamples) {
+            throw new IndexOutOfBoundsException(String.valueOf(sampleIndex));
+        }
+        int position = samplesOffset + sampleIndex * encoding.getSize();
+        switch (encoding) {
+            case BYTE:
+                return record.get(position);
+            case SHORT:
+                return record.getShort(position);
+            case INT:
+                return (float) record.getInt(position);
+            case FLOAT:
+                return record.getFloat(position);
+            default:
+                throw new IllegalStateException("Illegal sample encoding");
+        }
+    }
+
+    /**
+     * Decode all samples of this trace
+     *
+     * @return a new array containing the samples of this trace
+     */
+    public float[] getSamples() {
+        float[] result = new float[numberOfSamples];
+        readSamples(result, 0);
+        return result;
+    }
+
+    /**
+     * Get the samples of this trace in their stored encoding. This requires the samples to be coded as BYTE.
+     *
+     * @return a new array containing the samples of this trace
+     * @throws IllegalStateException if the samples do not fit in a byte
+     */
+    public byte[] getByteSamples() {
+        byte[] result = new byte[numberOfSamples];
+        readSamples(result, 0);
+        return result;
+    }
+
+    /**
+     * Get the samples of this trace without widening them to floats. This requires the samples to be coded as BYTE or SHORT.
+     *
+     * @return a new array containing the samples of this trace
+     * @throws IllegalStateException if the samples do not fit in a short
+     */
+    public short[] getShortSamples() {
+        short[] result = new short[numberOfSamples];
+        readSamples(result, 0);
+        return result;
+    }
+
+    /**
+     * Get the samples of this trace without widening them to floats. This requires the samples to be coded as BYTE, SHORT or INT.
+     *
+     * @return a new array containing the samples of this trace
+     * @throws IllegalStateException if the samples do not fit in an int
+     */
+    public int[] getIntSamples() {
+        int[] result = new int[numberOfSamples];
+        readSamples(result, 0);
+        return result;
+    }
+
+    /**
+     * Copy the samples of this trace into the provided array. This requires the samples to be coded as BYTE.
+     *
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in a byte
+     * @throws IndexOutOfBoundsException if the samples do not fit in the array at the requested offset
+     */
+    public void readSamples(byte[] dst, int offset) {
+        checkBounds(dst.length, offset);
+        SampleCodec.decode(record, samplesOffset, encoding, numberOfSamples, dst, offset);
+    }
+
+    /**
+     * Copy the samples of this trace into the provided array. This requires the samples to be coded as BYTE or SHORT.
+     *
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in a short
+     * @throws IndexOutOfBoundsException if the samples do not fit in the array at the requested offset
+     */
+    public void readSamples(short[] dst, int offset) {
+        checkBounds(dst.length, offset);
+        SampleCodec.decode(record, samplesOffset, encoding, numberOfSamples, dst, offset);
+    }
+
+    /**
+     * Copy the samples of this trace into the provided array. This requires the samples to be coded as BYTE, SHORT or INT.
+     *
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IllegalStateException if the samples do not fit in an int
+     * @throws IndexOutOfBoundsException if the samples do not fit in the array at the requested offset
+     */
+    public void readSamples(int[] dst, int offset) {
+        checkBounds(dst.length, offset);
+        SampleCodec.decode(record, samplesOffset, encoding, numberOfSamples, dst, offset);
+    }
+
+    /**
+     * Copy the samples of this trace into the provided array, converting them to floats if necessary.
+     *
+     * @param dst the array to copy the samples into
+     * @param offset the index in the array where the first sample is written
+     * @throws IndexOutOfBoundsException if the samples do not fit in the array at the requested offset
+     */
+    public void readSamples(float[] dst, int offset) {
+        checkBounds(dst.length, offset);
+        SampleCodec.decode(record, samplesOffset, encoding, numberOfSamples, dst, offset);
+    }
+
+    /**
+     * Get the samples of this trace without copying them. This is only supported for trace sets with FLOAT sample coding.
+     *
+     * @return a read-only buffer directly backed by the samples of this trace
+     * @throws IllegalStateException if the samples are not stored as floats
+     */
+    public FloatBuffer getFloatBuffer() {
+        if (encoding != Encoding.FLOAT) {
+            throw new IllegalStateException(String.format(NOT_FLOAT_CODED, encoding.name()));
+        }
+        return samplesBuffer().asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Decode this view into a stand-alone Trace, which no longer depends on the trace set being open.
+     *
+     * @return a new Trace containing the title, samples and parameters of this trace
+     */
+    public Trace toTrace() {
+        return new Trace(getTitle(), getSamples(), getParameters());
+    }
+
+    private ByteBuffer samplesBuffer() {
+        return SampleCodec.region(record, samplesOffset, numberOfSamples, encoding);
+    }
+
+    /**
+     * @return a new little endian buffer containing the requested part of this trace, with its position at zero
+     */
+    private ByteBuffer region(int offset, int length) {
+        ByteBuffer region = record.duplicate();
+        region.position(offset);
+        region.limit(offset + length);
+        return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void checkBounds(int arrayLength, int offset) {
+        if (offset < 0 || offset > arrayLength - numberOfSamples) {
+            throw new IndexOutOfBoundsException(String.format(ARRAY_TOO_SMALL, numberOfSamples, offset, arrayLength));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.riscure.trs.enums;
+
+/**
+ * What to do with a trace that is added asynchronously while the queue of the background writer is full
+ */
+public enum QueuePolicy {
+    /** wait until the queue has room for the trace */
+    BLOCK,
+    /** reject the trace, completing its future exceptionally */
+    FAIL,
+    /** discard the trace, cancelling its future, and count it as dropped */
+    DROP
+}
@@ -0,0 +1,211 @@
+package com.riscure.trs.io;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads little endian values from a {@link ByteBuffer}. It is the in-memory counterpart of
+ * {@link LittleEndianInputStream}: instead of reading every value byte by byte from a stream, values are read
+ * directly from the buffer, and arrays of values are copied in bulk through the typed views of the buffer.
+ *
+ * The reader has its own position, so it never changes the position of the buffer it was created from.
+ * Reading past the end of the buffer throws an {@link EOFException}, like the stream does.
+ */
+public final class LittleEndianBuffer {
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer the buffer to read, from its current position up to its limit
+     */
+    public LittleEndianBuffer(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param bytes the bytes to read, which are not copied
+     * @return a reader of all provided bytes
+     */
+    public static LittleEndianBuffer wrap(byte[] bytes) {
+        return new LittleEndianBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param bytes the bytes to read, which are not copied
+     * @param offset the index of the first byte to read
+     * @param length the number of bytes to read
+     * @return a reader of the requested range of the provided bytes
+     */
+    public static LittleEndianBuffer wrap(byte[] bytes, int offset, int length) {
+        return new LittleEndianBuffer(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * @return the number of bytes that have not been read yet
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public boolean readBoolean() throws EOFException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws EOFException {
+        require(Byte.BYTES);
+        return buffer.get();
+    }
+
+    public short readShort() throws EOFException {
+        require(Short.BYTES);
+        return buffer.getShort();
+    }
+
+    public int readInt() throws EOFException {
+        require(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws EOFException {
+        require(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws EOFException {
+        require(Float.BYTES);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws EOFException {
+        require(Double.BYTES);
+        return buffer.getDouble();
+    }
+
+    /**
+     * Read a UTF-8 encoded string
+     * @param length the number of bytes of the string
+     * @return the decoded string
+     * @throws EOFException if fewer bytes remain
+     */
+    public String readString(int length) throws EOFException {
+        byte[] bytes = new byte[length];
+        get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fill the provided array with the next bytes
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than the length of the array
+     */
+    public void get(byte[] dst) throws EOFException {
+        require(dst.length);
+        buffer.get(dst);
+    }
+
+    /**
+     * Fill the provided array with the next values, where every non-zero byte is true
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than the length of the array
+     */
+    public void get(boolean[] dst) throws EOFException {
+        require(dst.length);
+        for (int k = 0; k < dst.length; k++) {
+            dst[k] = buffer.get() != 0;
+        }
+    }
+
+    /**
+     * Fill the provided array with the next values
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than needed for all values
+     */
+    public void get(short[] dst) throws EOFException {
+        require((long) dst.length * Short.BYTES);
+        buffer.asShortBuffer().get(dst);
+        skip(dst.length * Short.BYTES);
+    }
+
+    /**
+     * Fill the provided array with the next values
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than needed for all values
+     */
+    public void get(int[] dst) throws EOFException {
+        require((long) dst.length * Integer.BYTES);
+        buffer.asIntBuffer().get(dst);
+        skip(dst.length * Integer.BYTES);
+    }
+
+    /**
+     * Fill the provided array with the next values
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than needed for all values
+     */
+    public void get(float[] dst) throws EOFException {
+        require((long) dst.length * Float.BYTES);
+        buffer.asFloatBuffer().get(dst);
+        skip(dst.length * Float.BYTES);
+    }
+
+    /**
+     * Fill the provided array with the next values
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than needed for all values
+     */
+    public void get(long[] dst) throws EOFException {
+        require((long) dst.length * Long.BYTES);
+        buffer.asLongBuffer().get(dst);
+        skip(dst.length * Long.BYTES);
+    }
+
+    /**
+     * Fill the provided array with the next values
+     * @param dst the array to fill
+     * @throws EOFException if fewer bytes remain than needed for all values
+     */
+    public void get(double[] dst) throws EOFException {
+        require((long) dst.length * Double.BYTES);
+        buffer.asDoubleBuffer().get(dst);
+        skip(dst.length * Double.BYTES);
+    }
+
+    /**
+     * @param bytes the array to read from
+     * @param offset the index of the first byte of the value
+     * @return the little endian short stored at the offset
+     */
+    public static short getShort(byte[] bytes, int offset) {
+        return (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] << 8));
+    }
+
+    /**
+     * @param bytes the array to read from
+     * @param offset the index of the first byte of the value
+     * @return the little endian int stored at the offset
+     */
+    public static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | bytes[offset + 3] << 24;
+    }
+
+    /**
+     * @param bytes the array to read from
+     * @param offset the index of the first byte of the value
+     * @return the little endian long stored at the offset
+     */
+    public static long getLong(byte[] bytes, int offset) {
+        return (getInt(bytes, offset) & 0xFFFFFFFFL) | (long) getInt(bytes, offset + Integer.BYTES) << 32;
+    }
+
+    private void skip(int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    private void require(long bytes) throws EOFException {
+        if (buffer.remaining() < bytes) throw new EOFException();
+    }
+}
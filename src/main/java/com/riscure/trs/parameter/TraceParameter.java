@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.primitive.*;
@@ -80,4 +81,36 @@ public abstract class TraceParameter {
                 throw new IllegalArgumentException("Unknown parameter type: " + type.name());
         }
     }
+
+    /**
+     * Read a new TraceParameter from the specified buffer, copying arrays of values in bulk
+     *
+     * @param type   the type of the parameter to read
+     * @param length the number of values to read
+     * @param buffer the buffer to read from
+     * @return a new TraceParameter of the specified type and length
+     * @throws IOException if the buffer does not contain all values
+     */
+    public static TraceParameter deserialize(ParameterType type, int length, LittleEndianBuffer buffer) throws IOException {
+        switch (type) {
+            case BYTE:
+                return ByteArrayParameter.deserialize(buffer, length);
+            case SHORT:
+                return ShortArrayParameter.deserialize(buffer, length);
+            case INT:
+                return IntegerArrayParameter.deserialize(buffer, length);
+            case FLOAT:
+                return FloatArrayParameter.deserialize(buffer, length);
+            case LONG:
+                return LongArrayParameter.deserialize(buffer, length);
+            case DOUBLE:
+                return DoubleArrayParameter.deserialize(buffer, length);
+            case STRING:
+                return StringParameter.deserialize(buffer, length);
+            case BOOL:
+                return BooleanArrayParameter.deserialize(buffer, length);
+            default:
+                throw new IllegalArgumentException("Unknown parameter type: " + type.name());
+        }
+    }
 }
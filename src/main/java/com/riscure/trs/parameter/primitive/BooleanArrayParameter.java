@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter.primitive;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -37,6 +38,12 @@ public class BooleanArrayParameter extends TraceParameter {
         return result;
     }
 
+    public static BooleanArrayParameter deserialize(LittleEndianBuffer buffer, int length) throws IOException {
+        BooleanArrayParameter result = new BooleanArrayParameter(length);
+        buffer.get(result.value);
+        return result;
+    }
+
     @Override
     public int length() {
         return value.length;
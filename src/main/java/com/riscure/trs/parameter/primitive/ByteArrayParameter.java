@@ -2,6 +2,7 @@ package com.riscure.trs.parameter.primitive;
 
 import com.riscure.trs.HexUtils;
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -36,6 +37,12 @@ public class ByteArrayParameter extends TraceParameter {
         return result;
     }
 
+    public static ByteArrayParameter deserialize(LittleEndianBuffer buffer, int length) throws IOException {
+        ByteArrayParameter result = new ByteArrayParameter(length);
+        buffer.get(result.value);
+        return result;
+    }
+
     @Override
     public int length() {
         return value.length;
@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter.primitive;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -37,6 +38,12 @@ public class FloatArrayParameter extends TraceParameter {
         return result;
     }
 
+    public static FloatArrayParameter deserialize(LittleEndianBuffer buffer, int length) throws IOException {
+        FloatArrayParameter result = new FloatArrayParameter(length);
+        buffer.get(result.value);
+        return result;
+    }
+
     @Override
     public int length() {
         return value.length;
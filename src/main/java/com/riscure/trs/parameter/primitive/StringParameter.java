@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter.primitive;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -34,6 +35,10 @@ public class StringParameter extends TraceParameter {
         return new StringParameter(new String(bytes, StandardCharsets.UTF_8));
     }
 
+    public static StringParameter deserialize(LittleEndianBuffer buffer, int length) throws IOException {
+        return new StringParameter(buffer.readString(length));
+    }
+
     @Override
     public int length() {
         return value.getBytes(StandardCharsets.UTF_8).length;
@@ -0,0 +1,239 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.types.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An immutable, compact record of the parameters of a single trace. All values are stored in one flat byte array,
+ * laid out as described by a {@link TraceParameterSchema} which is shared by all records of a trace set. A record
+ * therefore only costs the object itself and its byte array, which makes it suitable for keeping the parameters of
+ * many traces in memory. Values are decoded when they are requested, and scalar values are decoded without boxing.
+ *
+ * A record is thread safe.
+ */
+public final class CompactTraceParameters {
+    private static final String KEY_NOT_FOUND = "TraceParameter %s was not found in the trace.";
+    private static final String DATA_LENGTH_SCHEMA_MISMATCH = "The provided byte array (%d bytes) does not match the total schema length (%d bytes)";
+
+    private final TraceParameterSchema schema;
+    private final byte[] data;
+
+    private CompactTraceParameters(byte[] data, TraceParameterSchema schema) {
+        this.schema = schema;
+        this.data = data;
+    }
+
+    /**
+     * Create a record backed by the provided bytes. The provided byte array is not copied, and should not be modified
+     * afterwards.
+     * @param data the raw bytes of the parameters of a trace
+     * @param schema the layout of the parameters in the data
+     * @return a new record containing the parameters of the trace
+     * @throws IllegalArgumentException if the length of the data does not match the schema
+     */
+    public static CompactTraceParameters of(byte[] data, TraceParameterSchema schema) {
+        if (data.length != schema.totalSize()) {
+            throw new IllegalArgumentException(String.format(DATA_LENGTH_SCHEMA_MISMATCH, data.length, schema.totalSize()));
+        }
+        return new CompactTraceParameters(data, schema);
+    }
+
+    /**
+     * @return the schema describing the layout of this record
+     */
+    public TraceParameterSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the names of all parameters in this record, in the order of the definitions
+     */
+    public Set<String> keySet() {
+        return schema.keySet();
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @return whether this record contains a parameter with the given name
+     */
+    public boolean containsKey(String key) {
+        return schema.indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the number of parameters in this record
+     */
+    public int size() {
+        return schema.size();
+    }
+
+    /**
+     * Get a parameter from the record
+     * @param typedKey the {@link TypedKey} defining the name and the type of the value to retrieve
+     * @param <T> the type of the parameter
+     * @return the value of the requested parameter
+     * @throws ClassCastException if the requested value is not of the expected type
+     */
+    public <T> Optional<T> get(TypedKey<T> typedKey) {
+        int index = schema.indexOf(typedKey.getKey());
+        if (index < 0) {
+            return Optional.empty();
+        }
+        boolean scalar = schema.getLength(index) == 1 && !typedKey.getCls().isArray();
+        return Optional.of(typedKey.cast(decode(index, scalar)));
+    }
+
+    /**
+     * Get a parameter from the record
+     * @param typedKey the {@link TypedKey} defining the name and the type of the value to retrieve
+     * @param <T> the type of the parameter
+     * @return the value of the requested parameter
+     * @throws ClassCastException if the requested value is not of the expected type
+     * @throws NoSuchElementException if the requested value does not exist in the record
+     */
+    public <T> T getOrElseThrow(TypedKey<T> typedKey) {
+        return get(typedKey).orElseThrow(() -> new NoSuchElementException(String.format(KEY_NOT_FOUND, typedKey.getKey())));
+    }
+
+    /**
+     * Get a parameter from the record
+     * @param typedKey the {@link TypedKey} defining the name and the type of the value to retrieve
+     * @param defaultValue the value to return if the requested parameter does not exist
+     * @param <T> the type of the parameter
+     * @return the value of the requested parameter
+     * @throws ClassCastException if the requested value is not of the expected type
+     */
+    public <T> T getOrDefault(TypedKey<T> typedKey, T defaultValue) {
+        return get(typedKey).orElse(defaultValue);
+    }
+
+    public byte getByte(String key) {
+        return data[schema.scalarOffset(key, ParameterType.BYTE)];
+    }
+
+    public byte[] getByteArray(String key) {
+        return getOrElseThrow(new ByteArrayTypeKey(key));
+    }
+
+    public short getShort(String key) {
+        return LittleEndianBuffer.getShort(data, schema.scalarOffset(key, ParameterType.SHORT));
+    }
+
+    public short[] getShortArray(String key) {
+        return getOrElseThrow(new ShortArrayTypeKey(key));
+    }
+
+    public int getInt(String key) {
+        return LittleEndianBuffer.getInt(data, schema.scalarOffset(key, ParameterType.INT));
+    }
+
+    public int[] getIntArray(String key) {
+        return getOrElseThrow(new IntegerArrayTypeKey(key));
+    }
+
+    public float getFloat(String key) {
+        return Float.intBitsToFloat(LittleEndianBuffer.getInt(data, schema.scalarOffset(key, ParameterType.FLOAT)));
+    }
+
+    public float[] getFloatArray(String key) {
+        return getOrElseThrow(new FloatArrayTypeKey(key));
+    }
+
+    public long getLong(String key) {
+        return LittleEndianBuffer.getLong(data, schema.scalarOffset(key, ParameterType.LONG));
+    }
+
+    public long[] getLongArray(String key) {
+        return getOrElseThrow(new LongArrayTypeKey(key));
+    }
+
+    public double getDouble(String key) {
+        return Double.longBitsToDouble(LittleEndianBuffer.getLong(data, schema.scalarOffset(key, ParameterType.DOUBLE)));
+    }
+
+    public double[] getDoubleArray(String key) {
+        return getOrElseThrow(new DoubleArrayTypeKey(key));
+    }
+
+    public String getString(String key) {
+        return getOrElseThrow(new StringTypeKey(key));
+    }
+
+    public boolean getBoolean(String key) {
+        return data[schema.scalarOffset(key, ParameterType.BOOL)] != 0;
+    }
+
+    public boolean[] getBooleanArray(String key) {
+        return getOrElseThrow(new BooleanArrayTypeKey(key));
+    }
+
+    /**
+     * Convert this record into a regular parameter map, for use with the APIs that require one.
+     * The map shares the bytes of this record, so this does not copy any data.
+     * @return a new unmodifiable map containing all parameters of this record, which are decoded when first requested
+     */
+    public TraceParameterMap toParameterMap() {
+        return LazyTraceParameterMap.of(data, schema.getDefinitions());
+    }
+
+    /**
+     * @return a copy of the raw parameter bytes, which are already serialized as required
+     */
+    public byte[] toByteArray() {
+        return data.clone();
+    }
+
+    /**
+     * @param index the index of the parameter in the schema
+     * @param scalar whether to decode the single value of the parameter, rather than an array of its values
+     * @return the decoded value of the parameter, of the same class as the values of the corresponding parameter type
+     */
+    private Object decode(int index, boolean scalar) {
+        ParameterType type = schema.getType(index);
+        int length = schema.getLength(index);
+        LittleEndianBuffer buffer = LittleEndianBuffer.wrap(data, schema.getOffset(index), length * type.getByteSize());
+        try {
+            TraceParameter parameter = TraceParameter.deserialize(type, length, buffer);
+            return scalar ? parameter.getScalarValue() : parameter.getValue();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the raw parameter bytes, which should not be modified
+     */
+    byte[] data() {
+        return data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompactTraceParameters that = (CompactTraceParameters) o;
+
+        if (schema != that.schema && !schema.getDefinitions().equals(that.schema.getDefinitions())) return false;
+        return Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        return toParameterMap().toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.io.LittleEndianBuffer;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * An unmodifiable trace parameter map which is backed by the raw parameter bytes of a trace.
+ * A parameter is only decoded the first time it is requested, using the offset stored in its definition,
+ * so reading a trace costs nothing for the parameters that are never used.
+ *
+ * Operations that need all parameters at once, like iterating or comparing the map, decode all remaining parameters
+ * and store them in the order of the definitions.
+ */
+public class LazyTraceParameterMap extends UnmodifiableTraceParameterMap {
+    private static final String PARAMETER_OUT_OF_BOUNDS = "TraceParameter %s (%d bytes at offset %d) is not within the %d bytes of parameter data";
+
+    private final byte[] data;
+    private final TraceParameterDefinitionMap definitions;
+    private Map<String, TraceParameter> decoded;    //the parameters decoded so far, until all parameters are decoded
+    private boolean complete;                       //whether all parameters have been decoded into the map itself
+
+    private LazyTraceParameterMap(byte[] data, TraceParameterDefinitionMap definitions) {
+        super();
+        this.data = data;
+        this.definitions = definitions;
+        this.complete = definitions.isEmpty();
+    }
+
+    /**
+     * Create a map which decodes its parameters from the provided bytes when they are requested.
+     * The provided byte array is not copied, and should not be modified afterwards.
+     * @param data the raw bytes of the parameters of a trace
+     * @param definitions the type, offset and length of every parameter in the data
+     * @return a new unmodifiable map containing the parameters of the trace
+     */
+    public static TraceParameterMap of(byte[] data, TraceParameterDefinitionMap definitions) {
+        return new LazyTraceParameterMap(data, definitions);
+    }
+
+    @Override
+    public synchronized TraceParameter get(Object key) {
+        if (complete) {
+            return super.get(key);
+        }
+        TraceParameterDefinition<TraceParameter> definition = definitions.get(key);
+        if (definition == null) {
+            return null;
+        }
+        if (decoded == null) {
+            decoded = new HashMap<>();
+        }
+        TraceParameter parameter = decoded.get(key);
+        if (parameter == null) {
+            parameter = decode((String) key, definition);
+            decoded.put((String) key, parameter);
+        }
+        return parameter;
+    }
+
+    private TraceParameter decode(String key, TraceParameterDefinition<TraceParameter> definition) {
+        int offset = definition.getOffset();
+        int size = definition.getLength() * definition.getType().getByteSize();
+        if (offset < 0 || offset + size > data.length) {
+            throw new IllegalArgumentException(String.format(PARAMETER_OUT_OF_BOUNDS, key, size, offset, data.length));
+        }
+        try {
+            LittleEndianBuffer buffer = LittleEndianBuffer.wrap(data, offset, size);
+            return TraceParameter.deserialize(definition.getType(), definition.getLength(), buffer);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Decode all parameters that have not been requested yet, and store all parameters in the order of the definitions
+     */
+    private synchronized void decodeAll() {
+        if (!complete) {
+            for (String key : definitions.keySet()) {
+                store(key, get(key));
+            }
+            complete = true;
+            decoded = null;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return definitions.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return definitions.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return definitions.isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(definitions.keySet());
+    }
+
+    @Override
+    public TraceParameter getOrDefault(Object key, TraceParameter defaultValue) {
+        TraceParameter parameter = get(key);
+        return parameter != null ? parameter : defaultValue;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        decodeAll();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Collection<TraceParameter> values() {
+        decodeAll();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, TraceParameter>> entrySet() {
+        decodeAll();
+        return super.entrySet();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super TraceParameter> action) {
+        decodeAll();
+        super.forEach(action);
+    }
+
+    /**
+     * @return a copy of the raw parameter bytes, which are already serialized as required
+     */
+    @Override
+    public byte[] toByteArray() {
+        return data.clone();
+    }
+
+    TraceParameterDefinitionMap getDefinitions() {
+        return definitions;
+    }
+
+    int rawSize() {
+        return data.length;
+    }
+
+    /**
+     * Copy the raw parameter bytes into a buffer, without changing the position of the buffer
+     * @param buffer the buffer to copy into
+     * @param position the index in the buffer where the parameters start
+     */
+    void copyTo(ByteBuffer buffer, int position) {
+        int original = buffer.position();
+        buffer.position(position);
+        buffer.put(data);
+        buffer.position(original);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        decodeAll();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        decodeAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.io.LittleEndianBuffer;
+
+/**
+ * An accessor reads a single scalar trace parameter as a primitive, without looking up its name, boxing its value or
+ * creating any other objects. An accessor is bound once to a {@link TraceParameterSchema}, using
+ * {@link TraceParameterSchema#accessor}, and from then on reads the value at a fixed offset of the parameters of
+ * every trace. This makes it suitable for the inner loops of computations over many traces.
+ *
+ * Values can be read from the {@link TraceParameterRecord} of a cursor, or from {@link CompactTraceParameters}. Both
+ * must be laid out by the schema the accessor was bound to, or by an equal one. Accessors are thread safe.
+ */
+public abstract class ParameterAccessor {
+    private static final String SCHEMA_MISMATCH = "The parameters are not laid out by the schema TraceParameter %s was bound to";
+
+    private final TraceParameterSchema schema;
+    private final String key;
+    private final int offset;   //the byte offset of the value, relative to the start of the parameters of a trace
+    private volatile TraceParameterSchema accepted;     //the last schema found equal to the bound one
+
+    private ParameterAccessor(TraceParameterSchema schema, String key, int offset) {
+        this.schema = schema;
+        this.key = key;
+        this.offset = offset;
+        this.accepted = schema;
+    }
+
+    /**
+     * @return the name of the parameter read by this accessor
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the byte offset of the value, relative to the start of the parameters of a trace
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the index in the data of the record where the value is stored
+     */
+    final int offsetIn(CompactTraceParameters parameters) {
+        check(parameters.getSchema());
+        return offset;
+    }
+
+    /**
+     * @return the index in the buffer of the record where the value is stored
+     */
+    final int offsetIn(TraceParameterRecord record) {
+        check(record.getSchema());
+        return record.position() + offset;
+    }
+
+    /**
+     * Check that the parameters are laid out by the bound schema. Traces of one file all share the same schema, so
+     * only the first trace of another file with equal definitions pays for comparing them.
+     */
+    private void check(TraceParameterSchema other) {
+        if (other == accepted) return;
+        if (other != schema && !other.getDefinitions().equals(schema.getDefinitions())) {
+            throw new IllegalArgumentException(String.format(SCHEMA_MISMATCH, key));
+        }
+        accepted = other;
+    }
+
+    public static final class ByteAccessor extends ParameterAccessor {
+        ByteAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public byte get(TraceParameterRecord record) {
+            return record.buffer().get(offsetIn(record));
+        }
+
+        public byte get(CompactTraceParameters parameters) {
+            return parameters.data()[offsetIn(parameters)];
+        }
+    }
+
+    public static final class ShortAccessor extends ParameterAccessor {
+        ShortAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public short get(TraceParameterRecord record) {
+            return record.buffer().getShort(offsetIn(record));
+        }
+
+        public short get(CompactTraceParameters parameters) {
+            return LittleEndianBuffer.getShort(parameters.data(), offsetIn(parameters));
+        }
+    }
+
+    public static final class IntAccessor extends ParameterAccessor {
+        IntAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public int get(TraceParameterRecord record) {
+            return record.buffer().getInt(offsetIn(record));
+        }
+
+        public int get(CompactTraceParameters parameters) {
+            return LittleEndianBuffer.getInt(parameters.data(), offsetIn(parameters));
+        }
+    }
+
+    public static final class FloatAccessor extends ParameterAccessor {
+        FloatAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public float get(TraceParameterRecord record) {
+            return record.buffer().getFloat(offsetIn(record));
+        }
+
+        public float get(CompactTraceParameters parameters) {
+            return Float.intBitsToFloat(LittleEndianBuffer.getInt(parameters.data(), offsetIn(parameters)));
+        }
+    }
+
+    public static final class LongAccessor extends ParameterAccessor {
+        LongAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public long get(TraceParameterRecord record) {
+            return record.buffer().getLong(offsetIn(record));
+        }
+
+        public long get(CompactTraceParameters parameters) {
+            return LittleEndianBuffer.getLong(parameters.data(), offsetIn(parameters));
+        }
+    }
+
+    public static final class DoubleAccessor extends ParameterAccessor {
+        DoubleAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public double get(TraceParameterRecord record) {
+            return record.buffer().getDouble(offsetIn(record));
+        }
+
+        public double get(CompactTraceParameters parameters) {
+            return Double.longBitsToDouble(LittleEndianBuffer.getLong(parameters.data(), offsetIn(parameters)));
+        }
+    }
+
+    public static final class BooleanAccessor extends ParameterAccessor {
+        BooleanAccessor(TraceParameterSchema schema, String key, int offset) {
+            super(schema, key, offset);
+        }
+
+        public boolean get(TraceParameterRecord record) {
+            return record.buffer().get(offsetIn(record)) != 0;
+        }
+
+        public boolean get(CompactTraceParameters parameters) {
+            return parameters.data()[offsetIn(parameters)] != 0;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A reusable encoder which writes the parameters of a trace straight into a buffer, as described by a set of
+ * parameter definitions. It is the counterpart of {@link TraceParameterRecord}: every parameter is written exactly
+ * once, at the offset stored in its definition, and its type and length are validated against that definition while
+ * it is written. No intermediate byte arrays are created.
+ *
+ * An encoder is not thread safe; use a separate encoder for every thread.
+ */
+public final class TraceParameterEncoder {
+    private static final String PARAMETER_NOT_DEFINED = "Parameter %s is saved in the trace, but was not found in the header definition";
+    private static final String PARAMETER_MISSING = "Parameter %s is defined in the header, but was not found in the trace";
+    private static final String TYPE_MISMATCH = "Parameter %s is defined as type %s, but the trace contains type %s";
+    private static final String LENGTH_MISMATCH = "Parameter %s is defined with length %d, but the trace contains length %d";
+    private static final String BUFFER_TOO_SMALL = "Unable to encode %d bytes of parameters at index %d of a buffer with limit %d";
+
+    private final Field[] fields;
+    private final int totalSize;
+    private final CharsetEncoder utf8Encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer stringBuffer;     //a string is encoded here first, so a string that is too long is not stored
+    private TraceParameterDefinitionMap matchingDefinitions;    //the last definitions found to describe the same layout
+
+    /**
+     * @param definitions the definitions describing the parameters of every trace
+     */
+    public TraceParameterEncoder(TraceParameterDefinitionMap definitions) {
+        this.fields = new Field[definitions.size()];
+        int index = 0;
+        int maxStringLength = 0;
+        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
+            TraceParameterDefinition<TraceParameter> definition = entry.getValue();
+            fields[index++] = new Field(entry.getKey(), definition.getType(), definition.getOffset(), definition.getLength());
+            if (definition.getType() == ParameterType.STRING) {
+                maxStringLength = Math.max(maxStringLength, definition.getLength());
+            }
+        }
+        this.totalSize = definitions.totalSize();
+        this.stringBuffer = ByteBuffer.allocate(maxStringLength);
+    }
+
+    /**
+     * @return the total number of bytes of the parameters of a single trace
+     */
+    public int totalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Write the parameters of a trace into a buffer. The position of the buffer is not changed.
+     * A string parameter shorter than its definition is padded with NUL characters.
+     * If a parameter does not match its definition, an exception is thrown and the buffer contents are undefined
+     * within the parameter region.
+     * @param parameters the parameters to encode, which should contain exactly the defined parameters
+     * @param buffer the buffer to write into, which must be in little endian order
+     * @param position the index in the buffer where the parameters start
+     * @throws IllegalArgumentException if the parameters do not match the definitions
+     * @throws IndexOutOfBoundsException if the parameters do not fit in the buffer
+     */
+    public void encode(TraceParameterMap parameters, ByteBuffer buffer, int position) {
+        if (position < 0 || position > buffer.limit() - totalSize) {
+            throw new IndexOutOfBoundsException(String.format(BUFFER_TOO_SMALL, totalSize, position, buffer.limit()));
+        }
+        if (parameters.size() != fields.length) {
+            checkAllDefined(parameters);
+        }
+        if (parameters instanceof LazyTraceParameterMap && hasSameLayout((LazyTraceParameterMap) parameters)) {
+            ((LazyTraceParameterMap) parameters).copyTo(buffer, position);
+            return;
+        }
+        for (Field field : fields) {
+            TraceParameter parameter = parameters.get(field.key);
+            if (parameter == null) {
+                checkAllDefined(parameters);
+                throw new IllegalArgumentException(String.format(PARAMETER_MISSING, field.key));
+            }
+            encodeField(field, parameter, buffer, position);
+        }
+    }
+
+    /**
+     * Overwrite a single parameter of a trace in a buffer, leaving the other parameters untouched.
+     * The position of the buffer is not changed. A string parameter shorter than its definition is padded with NUL
+     * characters. If the parameter does not match its definition, an exception is thrown and the buffer is not modified.
+     * @param key the name of the parameter
+     * @param parameter the new value of the parameter, which should have the defined type and length
+     * @param buffer the buffer to write into, which must be in little endian order
+     * @param position the index in the buffer where the parameters of the trace start
+     * @throws IllegalArgumentException if the parameter is not defined, or does not match its definition
+     * @throws IndexOutOfBoundsException if the parameters do not fit in the buffer
+     */
+    public void encode(String key, TraceParameter parameter, ByteBuffer buffer, int position) {
+        if (position < 0 || position > buffer.limit() - totalSize) {
+            throw new IndexOutOfBoundsException(String.format(BUFFER_TOO_SMALL, totalSize, position, buffer.limit()));
+        }
+        for (Field field : fields) {
+            if (field.key.equals(key)) {
+                encodeField(field, parameter, buffer, position);
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format(PARAMETER_NOT_DEFINED, key));
+    }
+
+    private void encodeField(Field field, TraceParameter parameter, ByteBuffer buffer, int position) {
+        if (parameter.getType() != field.type) {
+            throw new IllegalArgumentException(String.format(TYPE_MISMATCH, field.key, field.type, parameter.getType()));
+        }
+        int offset = position + field.offset;
+        if (field.type == ParameterType.STRING) {
+            encodeString(field, (String) parameter.getValue(), buffer, offset);
+        } else {
+            checkLength(field, parameter.length());
+            encodeValues(field.type, parameter.getValue(), buffer, offset);
+        }
+    }
+
+    private void checkAllDefined(TraceParameterMap parameters) {
+        for (String key : parameters.keySet()) {
+            if (!isDefined(key)) {
+                throw new IllegalArgumentException(String.format(PARAMETER_NOT_DEFINED, key));
+            }
+        }
+    }
+
+    private boolean isDefined(String key) {
+        for (Field field : fields) {
+            if (field.key.equals(key)) return true;
+        }
+        return false;
+    }
+
+    private static void checkLength(Field field, int length) {
+        if (length != field.length) {
+            throw new IllegalArgumentException(String.format(LENGTH_MISMATCH, field.key, field.length, length));
+        }
+    }
+
+    /**
+     * A lazily decoded map already holds its parameters in serialized form. If these were serialized with the same
+     * layout, the raw bytes can be copied as a whole, without decoding any parameter.
+     */
+    private boolean hasSameLayout(LazyTraceParameterMap parameters) {
+        if (parameters.rawSize() != totalSize) return false;
+        TraceParameterDefinitionMap definitions = parameters.getDefinitions();
+        if (definitions == matchingDefinitions) return true;
+        if (definitions.size() != fields.length) return false;
+        for (Field field : fields) {
+            TraceParameterDefinition<TraceParameter> definition = definitions.get(field.key);
+            if (definition == null || definition.getType() != field.type
+                    || definition.getOffset() != field.offset || definition.getLength() != field.length) {
+                return false;
+            }
+        }
+        matchingDefinitions = definitions;
+        return true;
+    }
+
+    private void encodeString(Field field, String value, ByteBuffer buffer, int offset) {
+        stringBuffer.clear().limit(field.length);
+        utf8Encoder.reset();
+        CoderResult result = utf8Encoder.encode(CharBuffer.wrap(value), stringBuffer, true);
+        if (result.isUnderflow()) {
+            result = utf8Encoder.flush(stringBuffer);
+        }
+        if (result.isOverflow()) {
+            throw new IllegalArgumentException(String.format(LENGTH_MISMATCH, field.key, field.length,
+                    value.getBytes(StandardCharsets.UTF_8).length));
+        }
+        int length = stringBuffer.position();
+        for (int k = 0; k < length; k++) {
+            buffer.put(offset + k, stringBuffer.get(k));
+        }
+        for (int k = length; k < field.length; k++) {
+            buffer.put(offset + k, (byte) 0);
+        }
+    }
+
+    private static void encodeValues(ParameterType type, Object value, ByteBuffer buffer, int offset) {
+        switch (type) {
+            case BYTE:
+                for (byte b : (byte[]) value) {
+                    buffer.put(offset++, b);
+                }
+                break;
+            case SHORT:
+                for (short s : (short[]) value) {
+                    buffer.putShort(offset, s);
+                    offset += Short.BYTES;
+                }
+                break;
+            case INT:
+                for (int i : (int[]) value) {
+                    buffer.putInt(offset, i);
+                    offset += Integer.BYTES;
+                }
+                break;
+            case FLOAT:
+                for (float f : (float[]) value) {
+                    buffer.putInt(offset, Float.floatToIntBits(f));
+                    offset += Float.BYTES;
+                }
+                break;
+            case LONG:
+                for (long l : (long[]) value) {
+                    buffer.putLong(offset, l);
+                    offset += Long.BYTES;
+                }
+                break;
+            case DOUBLE:
+                for (double d : (double[]) value) {
+                    buffer.putLong(offset, Double.doubleToLongBits(d));
+                    offset += Double.BYTES;
+                }
+                break;
+            case BOOL:
+                for (boolean b : (boolean[]) value) {
+                    buffer.put(offset++, (byte) (b ? 1 : 0));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown parameter type: " + type.name());
+        }
+    }
+
+    /**
+     * The location of the values of a single parameter, relative to the start of the parameters of a trace
+     */
+    private static final class Field {
+        private final String key;
+        private final ParameterType type;
+        private final int offset;
+        private final int length;
+
+        private Field(String key, ParameterType type, int offset, int length) {
+            this.key = key;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
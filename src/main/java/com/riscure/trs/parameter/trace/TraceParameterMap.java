@@ -1,17 +1,13 @@
 package com.riscure.trs.parameter.trace;
 
-import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
-import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
 import com.riscure.trs.types.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
@@ -54,30 +50,23 @@ public class TraceParameterMap extends LinkedHashMap<String, TraceParameter> {
     }
 
     /**
+     * Parameters are decoded lazily: a parameter is only decoded when it is first requested from the resulting map.
      * @param bytes a raw byte array representing the values defined by the definition map
      * @param definitions the type and length information describing the provided byte array
-     * @return a new TraceParameterMap, created from the provided byte array based on the provided definitions
+     * @return a new unmodifiable TraceParameterMap, created from the provided byte array based on the provided definitions
      * @throws RuntimeException if the provided byte array does not represent a valid parameter map
      */
     public static TraceParameterMap deserialize(byte[] bytes, TraceParameterDefinitionMap definitions) {
-        TraceParameterMap result = new TraceParameterMap();
-        if (bytes != null) {
-            if (bytes.length != definitions.totalSize()) {
-                throw new IllegalArgumentException(String.format(DATA_LENGTH_DEFINITIONS_MISMATCH, bytes.length, definitions.totalSize()));
+        if (bytes == null) {
+            if (definitions.totalSize() != 0) {
+                throw new IllegalArgumentException(EMPTY_DATA_BUT_NONEMPTY_DEFINITIONS);
             }
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
-                LittleEndianInputStream dis = new LittleEndianInputStream(bais);
-                for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
-                    TraceParameter traceParameter = TraceParameter.deserialize(entry.getValue().getType(), entry.getValue().getLength(), dis);
-                    result.put(entry.getKey(), traceParameter);
-                }
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-        } else if (definitions.totalSize() != 0) {
-            throw new IllegalArgumentException(EMPTY_DATA_BUT_NONEMPTY_DEFINITIONS);
+            return LazyTraceParameterMap.of(new byte[0], definitions);
+        }
+        if (bytes.length != definitions.totalSize()) {
+            throw new IllegalArgumentException(String.format(DATA_LENGTH_DEFINITIONS_MISMATCH, bytes.length, definitions.totalSize()));
         }
-        return UnmodifiableTraceParameterMap.of(result);
+        return LazyTraceParameterMap.of(bytes.clone(), definitions);
     }
 
     /**
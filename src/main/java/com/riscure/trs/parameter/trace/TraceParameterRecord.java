@@ -0,0 +1,232 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A reusable, mutable record giving access to the parameters of one trace at a time, without creating any objects.
+ * The record does not copy the parameter data, but reads it in place from the buffer it was last moved to.
+ * Values are only decoded when requested, so it can be used to scan the parameters of many traces without
+ * producing garbage.
+ *
+ * A record is not thread safe, and its values are only valid until it is moved to the next trace.
+ * Use {@link #toParameterMap()} or {@link #toCompactParameters()} to get a stand-alone copy of the parameters.
+ */
+public final class TraceParameterRecord {
+    private static final String NOT_MOVED = "The record has not been moved to the parameters of a trace";
+
+    private final TraceParameterSchema schema;
+    private ByteBuffer buffer;      //the little endian buffer containing the parameters of the current trace
+    private int position;           //the index in the buffer where the parameters of the current trace start
+    private ByteBuffer view;        //a duplicate of the buffer, positioned to copy values out of it in bulk
+
+    /**
+     * @param definitions the definitions describing the parameters of every trace
+     */
+    public TraceParameterRecord(TraceParameterDefinitionMap definitions) {
+        this(new TraceParameterSchema(definitions));
+    }
+
+    /**
+     * @param schema the schema describing the parameters of every trace, which may be shared with other records
+     */
+    public TraceParameterRecord(TraceParameterSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Move this record to the parameters of another trace
+     * @param buffer the buffer containing the parameters, which must be in little endian order
+     * @param position the index in the buffer where the parameters start
+     */
+    public void moveTo(ByteBuffer buffer, int position) {
+        if (buffer != this.buffer) {
+            view = buffer.duplicate();
+        }
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * @return the names of all parameters in this record
+     */
+    public Set<String> keySet() {
+        return schema.keySet();
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @return whether this record contains a parameter with the given name
+     */
+    public boolean containsKey(String key) {
+        return schema.indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the schema describing the parameters of every trace
+     */
+    public TraceParameterSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the little endian buffer containing the parameters of the current trace
+     */
+    ByteBuffer buffer() {
+        checkMoved();
+        return buffer;
+    }
+
+    /**
+     * @return the index in the buffer where the parameters of the current trace start
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * @return the total number of bytes of the parameters of a single trace
+     */
+    public int totalSize() {
+        return schema.totalSize();
+    }
+
+    public byte getByte(String key) {
+        return getByte(key, 0);
+    }
+
+    public byte getByte(String key, int index) {
+        return buffer.get(offsetOf(key, ParameterType.BYTE, index));
+    }
+
+    public short getShort(String key) {
+        return getShort(key, 0);
+    }
+
+    public short getShort(String key, int index) {
+        return buffer.getShort(offsetOf(key, ParameterType.SHORT, index));
+    }
+
+    public int getInt(String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(String key, int index) {
+        return buffer.getInt(offsetOf(key, ParameterType.INT, index));
+    }
+
+    public float getFloat(String key) {
+        return getFloat(key, 0);
+    }
+
+    public float getFloat(String key, int index) {
+        return buffer.getFloat(offsetOf(key, ParameterType.FLOAT, index));
+    }
+
+    public long getLong(String key) {
+        return getLong(key, 0);
+    }
+
+    public long getLong(String key, int index) {
+        return buffer.getLong(offsetOf(key, ParameterType.LONG, index));
+    }
+
+    public double getDouble(String key) {
+        return getDouble(key, 0);
+    }
+
+    public double getDouble(String key, int index) {
+        return buffer.getDouble(offsetOf(key, ParameterType.DOUBLE, index));
+    }
+
+    public boolean getBoolean(String key) {
+        return getBoolean(key, 0);
+    }
+
+    public boolean getBoolean(String key, int index) {
+        return buffer.get(offsetOf(key, ParameterType.BOOL, index)) != 0;
+    }
+
+    /**
+     * Get the number of values of a parameter
+     * @param key the name of the parameter
+     * @return the number of values of the requested parameter
+     * @throws NoSuchElementException if the parameter does not exist
+     */
+    public int length(String key) {
+        checkMoved();
+        return schema.getLength(schema.requireIndex(key));
+    }
+
+    /**
+     * Copy the values of a byte parameter into the provided array
+     * @param key the name of the parameter
+     * @param dst the array to copy the values into, which should be at least as long as the parameter
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a byte parameter
+     */
+    public void readBytes(String key, byte[] dst) {
+        checkMoved();
+        int field = schema.requireIndex(key, ParameterType.BYTE);
+        copy(position + schema.getOffset(field), dst, schema.getLength(field));
+    }
+
+    /**
+     * Decode a string parameter. Note that this creates a new String.
+     * @param key the name of the parameter
+     * @return the value of the requested parameter
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a string parameter
+     */
+    public String getString(String key) {
+        checkMoved();
+        int field = schema.requireIndex(key, ParameterType.STRING);
+        byte[] bytes = new byte[schema.getLength(field)];
+        copy(position + schema.getOffset(field), bytes, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy the parameters of the current trace into a stand-alone map, which remains valid after this record moves.
+     * @return a new unmodifiable map containing all parameters of the current trace, which are decoded when first requested
+     */
+    public TraceParameterMap toParameterMap() {
+        return LazyTraceParameterMap.of(copyData(), schema.getDefinitions());
+    }
+
+    /**
+     * Copy the parameters of the current trace into a compact record, which remains valid after this record moves.
+     * The compact record shares the schema of this record.
+     * @return a new compact record containing all parameters of the current trace
+     */
+    public CompactTraceParameters toCompactParameters() {
+        return CompactTraceParameters.of(copyData(), schema);
+    }
+
+    private byte[] copyData() {
+        checkMoved();
+        byte[] data = new byte[schema.totalSize()];
+        copy(position, data, data.length);
+        return data;
+    }
+
+    private void copy(int index, byte[] dst, int length) {
+        view.clear();
+        view.position(index);
+        view.get(dst, 0, length);
+    }
+
+    private int offsetOf(String key, ParameterType type, int index) {
+        checkMoved();
+        return position + schema.offsetOf(key, type, index);
+    }
+
+    private void checkMoved() {
+        if (buffer == null) throw new IllegalStateException(NOT_MOVED);
+    }
+}
@@ -0,0 +1,265 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.types.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable table with the type, offset and length of every trace parameter, indexed by the position of the
+ * parameter in the definitions. A schema is created once per trace set, and shared by all
+ * {@link CompactTraceParameters} records of that set, so the records themselves only need to hold the raw bytes.
+ * The schema is also the single place where the name and type of a requested parameter are resolved to the offset of
+ * its values, for those records, for {@link TraceParameterRecord} and for the accessors bound to it.
+ *
+ * A schema is thread safe.
+ */
+public final class TraceParameterSchema {
+    private static final String KEY_NOT_FOUND = "TraceParameter %s was not found in the trace.";
+    private static final String TYPE_MISMATCH = "TraceParameter %s is of type %s, but was requested as %s";
+    private static final String NOT_A_SCALAR = "TraceParameter %s holds %d values of type %s, but was requested as a single %s";
+    private static final String INDEX_OUT_OF_BOUNDS = "Index %d is not within the %d values of TraceParameter %s";
+    private static final String PARAMETER_OUT_OF_BOUNDS = "TraceParameter %s (%d bytes at offset %d) is not within the %d bytes of parameter data";
+
+    private final TraceParameterDefinitionMap definitions;
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final String[] keys;
+    private final ParameterType[] types;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int totalSize;
+
+    /**
+     * @param definitions the definitions describing the parameters of every trace, which should not be modified afterwards
+     * @throws IllegalArgumentException if a parameter is not within the total size of the definitions
+     */
+    public TraceParameterSchema(TraceParameterDefinitionMap definitions) {
+        this.definitions = definitions;
+        this.totalSize = definitions.totalSize();
+        int size = definitions.size();
+        this.keys = new String[size];
+        this.types = new ParameterType[size];
+        this.offsets = new int[size];
+        this.lengths = new int[size];
+        int index = 0;
+        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
+            TraceParameterDefinition<TraceParameter> definition = entry.getValue();
+            int offset = definition.getOffset();
+            int byteSize = definition.getLength() * definition.getType().getByteSize();
+            if (offset < 0 || offset + byteSize > totalSize) {
+                throw new IllegalArgumentException(String.format(PARAMETER_OUT_OF_BOUNDS, entry.getKey(), byteSize, offset, totalSize));
+            }
+            keys[index] = entry.getKey();
+            types[index] = definition.getType();
+            offsets[index] = offset;
+            lengths[index] = definition.getLength();
+            indices.put(entry.getKey(), index);
+            index++;
+        }
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @return the index of the parameter in this schema, or -1 if there is no parameter with that name
+     */
+    public int indexOf(String key) {
+        Integer index = indices.get(key);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @return the index of the parameter in this schema
+     * @throws NoSuchElementException if there is no parameter with that name
+     */
+    public int requireIndex(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            throw new NoSuchElementException(String.format(KEY_NOT_FOUND, key));
+        }
+        return index;
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @param type the type the parameter is requested as
+     * @return the index of the parameter in this schema
+     * @throws NoSuchElementException if there is no parameter with that name
+     * @throws ClassCastException if the parameter is of another type
+     */
+    public int requireIndex(String key, ParameterType type) {
+        int index = requireIndex(key);
+        if (types[index] != type) {
+            throw new ClassCastException(String.format(TYPE_MISMATCH, key, types[index], type));
+        }
+        return index;
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @param type the type the parameter is requested as
+     * @param valueIndex the index of the requested value within the values of the parameter
+     * @return the byte offset of the value, relative to the start of the parameters of a trace
+     * @throws NoSuchElementException if there is no parameter with that name
+     * @throws ClassCastException if the parameter is of another type
+     * @throws IndexOutOfBoundsException if the parameter does not have a value at that index
+     */
+    public int offsetOf(String key, ParameterType type, int valueIndex) {
+        int index = requireIndex(key, type);
+        if (valueIndex < 0 || valueIndex >= lengths[index]) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, valueIndex, lengths[index], key));
+        }
+        return offsets[index] + valueIndex * type.getByteSize();
+    }
+
+    /**
+     * @param key the name of the parameter
+     * @param type the type the parameter is requested as
+     * @return the byte offset of the single value of the parameter, relative to the start of the parameters of a trace
+     * @throws NoSuchElementException if there is no parameter with that name
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public int scalarOffset(String key, ParameterType type) {
+        int index = requireIndex(key);
+        if (types[index] != type || lengths[index] != 1) {
+            throw new ClassCastException(String.format(NOT_A_SCALAR, key, lengths[index], types[index], type));
+        }
+        return offsets[index];
+    }
+
+    /**
+     * @return the number of parameters in this schema
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return the names of all parameters, in the order of the definitions
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(definitions.keySet());
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    public ParameterType getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @param index the index of the parameter in this schema
+     * @return the byte offset of the parameter, relative to the start of the parameters of a trace
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index the index of the parameter in this schema
+     * @return the number of values of the parameter
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * @return the total number of bytes of the parameters of a single trace
+     */
+    public int totalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return the definitions this schema was created from
+     */
+    public TraceParameterDefinitionMap getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, which reads its value without any lookup or boxing
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.IntAccessor accessor(IntegerTypeKey typedKey) {
+        return new ParameterAccessor.IntAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.ByteAccessor accessor(ByteTypeKey typedKey) {
+        return new ParameterAccessor.ByteAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.ShortAccessor accessor(ShortTypeKey typedKey) {
+        return new ParameterAccessor.ShortAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.FloatAccessor accessor(FloatTypeKey typedKey) {
+        return new ParameterAccessor.FloatAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.LongAccessor accessor(LongTypeKey typedKey) {
+        return new ParameterAccessor.LongAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.DoubleAccessor accessor(DoubleTypeKey typedKey) {
+        return new ParameterAccessor.DoubleAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+
+    /**
+     * Bind an accessor to a scalar parameter of this schema, as {@link #accessor(IntegerTypeKey)} does
+     * @param typedKey the {@link TypedKey} defining the name and the type of the parameter
+     * @return an accessor reading the parameter from every trace laid out by this schema
+     * @throws NoSuchElementException if the parameter does not exist
+     * @throws ClassCastException if the parameter is not a single value of the requested type
+     */
+    public ParameterAccessor.BooleanAccessor accessor(BooleanTypeKey typedKey) {
+        return new ParameterAccessor.BooleanAccessor(this, typedKey.getKey(), scalarOffset(typedKey.getKey(), typedKey.getType()));
+    }
+}
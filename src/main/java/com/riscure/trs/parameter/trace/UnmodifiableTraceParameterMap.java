@@ -7,6 +7,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * This is an unmodifiable version of a trace parameter map. This should always be used for a trace read back from a file.
@@ -24,6 +25,22 @@ public class UnmodifiableTraceParameterMap extends TraceParameterMap {
         super.putAll(delegate.copy());
     }
 
+    /**
+     * Create an empty unmodifiable map, to be filled by a subclass using {@link #store(String, TraceParameter)}
+     */
+    UnmodifiableTraceParameterMap() {
+        super();
+    }
+
+    /**
+     * Add a parameter while bypassing the modification checks of this map
+     * @param key the name of the parameter
+     * @param value the value of the parameter
+     */
+    void store(String key, TraceParameter value) {
+        super.put(key, value);
+    }
+
     public static TraceParameterMap of(TraceParameterMap delegate) {
         return new UnmodifiableTraceParameterMap(delegate);
     }
@@ -124,6 +141,21 @@ public class UnmodifiableTraceParameterMap extends TraceParameterMap {
         );
     }
 
+    @Override
+    public TraceParameter computeIfAbsent(String key, Function<? super String, ? extends TraceParameter> mappingFunction) {
+        throw new UnsupportedOperationException(MODIFICATION_NOT_SUPPORTED_EXCEPTION);
+    }
+
+    @Override
+    public TraceParameter computeIfPresent(String key, BiFunction<? super String, ? super TraceParameter, ? extends TraceParameter> remappingFunction) {
+        throw new UnsupportedOperationException(MODIFICATION_NOT_SUPPORTED_EXCEPTION);
+    }
+
+    @Override
+    public TraceParameter compute(String key, BiFunction<? super String, ? super TraceParameter, ? extends TraceParameter> remappingFunction) {
+        throw new UnsupportedOperationException(MODIFICATION_NOT_SUPPORTED_EXCEPTION);
+    }
+
     @Override
     public TraceParameter merge(String key, TraceParameter value, BiFunction<? super TraceParameter, ? super TraceParameter, ? extends TraceParameter> remappingFunction) {
         throw new UnsupportedOperationException(MODIFICATION_NOT_SUPPORTED_EXCEPTION);
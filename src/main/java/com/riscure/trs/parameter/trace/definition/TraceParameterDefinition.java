@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter.trace.definition;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -38,6 +39,13 @@ public class TraceParameterDefinition<T extends TraceParameter> {
         return new TraceParameterDefinition<>(type, length, offset);
     }
 
+    public static TraceParameterDefinition<TraceParameter> deserialize(LittleEndianBuffer buffer) throws IOException {
+        ParameterType type = ParameterType.fromValue(buffer.readByte());
+        short length = buffer.readShort();
+        short offset = buffer.readShort();
+        return new TraceParameterDefinition<>(type, length, offset);
+    }
+
     public ParameterType getType() {
         return type;
     }
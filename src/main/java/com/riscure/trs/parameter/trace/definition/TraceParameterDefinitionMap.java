@@ -1,12 +1,11 @@
 package com.riscure.trs.parameter.trace.definition;
 
 import com.riscure.trs.TRSMetaDataUtils;
-import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
 import com.riscure.trs.parameter.trace.TraceParameterMap;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -72,14 +71,14 @@ public class TraceParameterDefinitionMap extends LinkedHashMap<String, TracePara
     public static TraceParameterDefinitionMap deserialize(byte[] bytes) {
         TraceParameterDefinitionMap result = new TraceParameterDefinitionMap();
         if (bytes != null && bytes.length > 0) {
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
-                LittleEndianInputStream dis = new LittleEndianInputStream(bais);
+            try {
+                LittleEndianBuffer buffer = LittleEndianBuffer.wrap(bytes);
                 //Read NE
-                short numberOfEntries = dis.readShort();
+                short numberOfEntries = buffer.readShort();
                 for (int k = 0; k < numberOfEntries; k++) {
-                    String name = TRSMetaDataUtils.readName(dis);
+                    String name = TRSMetaDataUtils.readName(buffer);
                     //Read definition
-                    result.put(name, TraceParameterDefinition.deserialize(dis));
+                    result.put(name, TraceParameterDefinition.deserialize(buffer));
                 }
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
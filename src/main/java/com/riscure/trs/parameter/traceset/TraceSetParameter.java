@@ -1,6 +1,7 @@
 package com.riscure.trs.parameter.traceset;
 
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.parameter.TraceParameter;
@@ -42,6 +43,12 @@ public class TraceSetParameter {
         return new TraceSetParameter(TraceParameter.deserialize(type, length, dis));
     }
 
+    public static TraceSetParameter deserialize(LittleEndianBuffer buffer) throws IOException {
+        ParameterType type = ParameterType.fromValue(buffer.readByte());
+        int length = buffer.readShort() & MAX_LENGTH;
+        return new TraceSetParameter(TraceParameter.deserialize(type, length, buffer));
+    }
+
     public TraceParameter getValue() {
         return value;
     }
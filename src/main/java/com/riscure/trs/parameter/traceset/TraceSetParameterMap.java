@@ -1,11 +1,10 @@
 package com.riscure.trs.parameter.traceset;
 
 import com.riscure.trs.TRSMetaDataUtils;
-import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianBuffer;
 import com.riscure.trs.io.LittleEndianOutputStream;
 import com.riscure.trs.types.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -71,14 +70,14 @@ public class TraceSetParameterMap extends LinkedHashMap<String, TraceSetParamete
     public static TraceSetParameterMap deserialize(byte[] bytes) {
         TraceSetParameterMap result = new TraceSetParameterMap();
         if (bytes != null && bytes.length > 0) {
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
-                LittleEndianInputStream dis = new LittleEndianInputStream(bais);
+            try {
+                LittleEndianBuffer buffer = LittleEndianBuffer.wrap(bytes);
                 //Read NE
-                short numberOfEntries = dis.readShort();
+                short numberOfEntries = buffer.readShort();
                 for (int k = 0; k < numberOfEntries; k++) {
-                    String name = TRSMetaDataUtils.readName(dis);
+                    String name = TRSMetaDataUtils.readName(buffer);
                     //Read value
-                    result.put(name, TraceSetParameter.deserialize(dis));
+                    result.put(name, TraceSetParameter.deserialize(buffer));
                 }
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
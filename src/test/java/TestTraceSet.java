@@ -1,14 +1,24 @@
+import com.riscure.trs.AsyncWriteStatistics;
 import com.riscure.trs.TRSFormatException;
 import com.riscure.trs.TRSMetaData;
 import com.riscure.trs.Trace;
+import com.riscure.trs.TraceCursor;
 import com.riscure.trs.TraceSet;
+import com.riscure.trs.TraceSetLayout;
+import com.riscure.trs.TraceView;
 import com.riscure.trs.enums.Encoding;
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.enums.QueuePolicy;
 import com.riscure.trs.enums.TRSTag;
 import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.parameter.TraceParameter;
 import com.riscure.trs.parameter.primitive.ByteArrayParameter;
+import com.riscure.trs.parameter.primitive.IntegerArrayParameter;
+import com.riscure.trs.parameter.primitive.StringParameter;
+import com.riscure.trs.parameter.trace.CompactTraceParameters;
+import com.riscure.trs.parameter.trace.ParameterAccessor;
 import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.trace.TraceParameterRecord;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
 import com.riscure.trs.parameter.traceset.TraceSetParameter;
@@ -22,9 +32,21 @@ import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -664,6 +686,695 @@ public class TestTraceSet {
         }
     }
 
+    /**
+     * This test checks whether a trace view decodes the same information as a fully read trace
+     */
+    @Test
+    void testTraceView() throws IOException, TRSFormatException {
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + FLOATS_TRS)) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceView view = readable.view(k);
+                Trace trace = readable.get(k);
+                assertEquals(trace.getTitle(), view.getTitle());
+                assertEquals(trace.getParameters(), view.getParameters());
+                assertArrayEquals(FLOAT_SAMPLES, view.getSamples(), 0.01f);
+                assertEquals(FLOAT_SAMPLES[4], view.getSample(4), 0.01f);
+                FloatBuffer floatBuffer = view.getFloatBuffer();
+                assertEquals(FLOAT_SAMPLES.length, floatBuffer.remaining());
+                assertEquals(FLOAT_SAMPLES[4], floatBuffer.get(4), 0.01f);
+                assertTrue(floatBuffer.isReadOnly());
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + SHORTS_TRS)) {
+            TraceView view = readable.view(0);
+            assertArrayEquals(SHORT_SAMPLES, view.getSamples(), 0.01f);
+            assertThrows(IllegalStateException.class, view::getFloatBuffer);
+        }
+    }
+
+    /**
+     * This test checks whether samples can be read in their stored encoding, and can only be widened
+     */
+    @Test
+    void testReadNativeSamples() throws IOException, TRSFormatException {
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + BYTES_TRS)) {
+            byte[] bytes = new byte[BYTE_SAMPLES.length];
+            readable.readSamples(0, bytes);
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, bytes);
+            assertArrayEquals(new short[]{1, 2, 3, 4, 5}, readable.view(1).getShortSamples());
+            assertArrayEquals(new int[]{1, 2, 3, 4, 5}, readable.view(2).getIntSamples());
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + SHORTS_TRS)) {
+            short[] shorts = new short[SHORT_SAMPLES.length + 2];
+            readable.view(0).readSamples(shorts, 2);
+            assertArrayEquals(new short[]{0, 0, 1, 2, 3, 4, Byte.MAX_VALUE + 1}, shorts);
+            assertThrows(IllegalStateException.class, () -> readable.readSamples(0, new byte[SHORT_SAMPLES.length]));
+            assertThrows(IndexOutOfBoundsException.class, () -> readable.view(0).readSamples(shorts, 3));
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + INTS_TRS)) {
+            int[] ints = new int[INT_SAMPLES.length];
+            readable.readSamples(0, ints);
+            assertArrayEquals(new int[]{1, 2, 3, 4, Short.MAX_VALUE + 1}, ints);
+            assertThrows(IllegalStateException.class, () -> readable.readSamples(0, new short[INT_SAMPLES.length]));
+        }
+    }
+
+    /**
+     * This test checks whether the samples of a range of traces are read into a single row-major array
+     */
+    @Test
+    void testReadSampleRange() throws IOException, TRSFormatException {
+        int from = 10;
+        int to = 20;
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + SHORTS_TRS)) {
+            float[] floats = new float[(to - from) * SHORT_SAMPLES.length];
+            short[] shorts = new short[(to - from) * SHORT_SAMPLES.length];
+            readable.readSamples(from, to, floats);
+            readable.readSamples(from, to, shorts);
+            for (int k = from; k < to; k++) {
+                int offset = (k - from) * SHORT_SAMPLES.length;
+                assertArrayEquals(readable.get(k).getSample(), Arrays.copyOfRange(floats, offset, offset + SHORT_SAMPLES.length));
+                assertArrayEquals(readable.view(k).getShortSamples(), Arrays.copyOfRange(shorts, offset, offset + SHORT_SAMPLES.length));
+            }
+            assertThrows(IllegalArgumentException.class, () -> readable.readSamples(from, to, new float[floats.length - 1]));
+            assertThrows(IllegalArgumentException.class, () -> readable.readSamples(NUMBER_OF_TRACES - 1, NUMBER_OF_TRACES + 1, floats));
+            assertThrows(IllegalStateException.class, () -> readable.readSamples(from, to, new byte[floats.length]));
+        }
+    }
+
+    /**
+     * This test checks whether the layout of a trace set locates the samples of every trace in the file
+     */
+    @Test
+    void testLayout() throws IOException, TRSFormatException {
+        Path file = tempDir.resolve(SHORTS_TRS);
+        byte[] bytes = Files.readAllBytes(file);
+        try (TraceSet readable = TraceSet.open(file.toString())) {
+            TraceSetLayout layout = readable.getLayout();
+            assertEquals(Encoding.SHORT, layout.getEncoding());
+            assertEquals(SHORT_SAMPLES.length, layout.getNumberOfSamples());
+            assertEquals(NUMBER_OF_TRACES, layout.getNumberOfTraces());
+            assertEquals(bytes.length, layout.getFileSize());
+            assertEquals(layout.getTitleSpace() + layout.getDataLength() + SHORT_SAMPLES.length * 2, layout.getTraceSize());
+            for (int k = 0; k < NUMBER_OF_TRACES; k += 100) {
+                int offset = (int) layout.sampleOffset(k, 4);
+                short sample = (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] << 8));
+                assertEquals(SHORT_SAMPLES[4], sample);
+                assertEquals(layout.traceOffset(k) + layout.getSamplesOffset(), layout.sampleOffset(k, 0));
+            }
+        }
+    }
+
+    /**
+     * This test checks whether a cursor exposes the same titles, parameters and samples as reading every trace
+     */
+    @Test
+    void testCursor() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet writable = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INPUT", new byte[]{(byte) k, (byte) (k >> 8)});
+                parameters.put("INDEX", k);
+                parameters.put("NAME", String.format("%4d", k));
+                writable.add(Trace.create(String.format("Trace %4d", k), SHORT_SAMPLES, parameters));
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            TraceCursor cursor = readable.cursor();
+            assertThrows(NoSuchElementException.class, cursor::getTitle);
+            float[] floats = new float[SHORT_SAMPLES.length];
+            short[] shorts = new short[SHORT_SAMPLES.length];
+            byte[] input = new byte[2];
+            int count = 0;
+            while (cursor.next()) {
+                Trace trace = readable.get(cursor.getIndex());
+                assertEquals(count, cursor.getIndex());
+                assertEquals(trace.getTitle(), cursor.getTitle().toString());
+                cursor.readSamples(floats, 0);
+                cursor.readSamples(shorts, 0);
+                assertArrayEquals(SHORT_SAMPLES, floats);
+                assertArrayEquals(readable.view(count).getShortSamples(), shorts);
+                cursor.getParameters().readBytes("INPUT", input);
+                assertArrayEquals(trace.getParameters().getByteArray("INPUT"), input);
+                assertEquals(count, cursor.getParameters().getInt("INDEX"));
+                assertEquals(trace.getParameters().getString("NAME"), cursor.getParameters().getString("NAME"));
+                assertEquals(trace.getParameters(), cursor.getParameters().toParameterMap());
+                count++;
+            }
+            assertEquals(NUMBER_OF_TRACES, count);
+            assertFalse(cursor.next());
+            assertThrows(ClassCastException.class, () -> cursor.getParameters().getFloat("INDEX"));
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.getParameters().getByte("INPUT", 2));
+            assertThrows(NoSuchElementException.class, () -> cursor.getParameters().getInt("MISSING"));
+        }
+    }
+
+    /**
+     * This test checks whether compact parameters hold the same values as the parameters of every trace, and whether
+     * an accessor reads the same values from a compact record and from the record of a cursor
+     */
+    @Test
+    void testCompactParameters() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet writable = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INPUT", new byte[]{(byte) k, (byte) (k >> 8)});
+                parameters.put("INDEX", k);
+                parameters.put("NAME", String.format("%4d", k));
+                writable.add(Trace.create(String.format("Trace %4d", k), SHORT_SAMPLES, parameters));
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            List<CompactTraceParameters> records = new ArrayList<>();
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                records.add(readable.getCompactParameters(k));
+            }
+            TraceCursor cursor = readable.cursor();
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                assertTrue(cursor.next());
+                CompactTraceParameters compact = records.get(k);
+                assertSame(readable.getParameterSchema(), compact.getSchema());
+                assertEquals(k, compact.getInt("INDEX"));
+                assertEquals(k, compact.getOrElseThrow(new IntegerTypeKey("INDEX")));
+                assertEquals(readable.get(k).getParameters(), compact.toParameterMap());
+                assertEquals(compact, cursor.getParameters().toCompactParameters());
+            }
+            ParameterAccessor.IntAccessor index = readable.accessor(new IntegerTypeKey("INDEX"));
+            TraceCursor again = readable.cursor();
+            for (int k = 0; again.next(); k++) {
+                assertEquals(k, index.get(again.getParameters()));
+                assertEquals(k, index.get(records.get(k)));
+            }
+            assertThrows(ClassCastException.class, () -> readable.accessor(new IntegerTypeKey("NAME")));
+        }
+    }
+
+    /**
+     * This test checks whether reading a parameter of a range of traces into an array of its type returns the same
+     * values as reading the parameters of every trace
+     */
+    @Test
+    void testReadParameterColumn() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet writable = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INPUT", new byte[]{(byte) k, (byte) (k >> 8), 3});
+                parameters.put("SHORTS", new short[]{(short) -k, (short) k});
+                parameters.put("INDEX", k);
+                parameters.put("FLOAT", k / 2f);
+                parameters.put("LONG", (long) k << 40);
+                parameters.put("DOUBLE", -k / 4.0);
+                parameters.put("FLAG", k % 3 == 0);
+                parameters.put("NAME", String.format("%4d", k));
+                writable.add(Trace.create(String.format("Trace %4d", k), FLOAT_SAMPLES, parameters));
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            int from = 10;
+            int to = NUMBER_OF_TRACES - 10;
+            int rows = to - from;
+            byte[] input = new byte[3 * rows];
+            short[] shorts = new short[2 * rows];
+            int[] index = new int[rows];
+            float[] floats = new float[rows];
+            long[] longs = new long[rows];
+            double[] doubles = new double[rows];
+            boolean[] flags = new boolean[rows];
+            byte[] names = new byte[4 * rows];
+            readable.readParameterColumn("INPUT", from, to, input);
+            readable.readParameterColumn("SHORTS", from, to, shorts);
+            readable.readParameterColumn("INDEX", from, to, index);
+            readable.readParameterColumn("FLOAT", from, to, floats);
+            readable.readParameterColumn("LONG", from, to, longs);
+            readable.readParameterColumn("DOUBLE", from, to, doubles);
+            readable.readParameterColumn("FLAG", from, to, flags);
+            readable.readParameterColumn("NAME", from, to, names);
+            for (int k = from; k < to; k++) {
+                int row = k - from;
+                TraceParameterMap parameters = readable.get(k).getParameters();
+                assertArrayEquals(parameters.getByteArray("INPUT"), Arrays.copyOfRange(input, 3 * row, 3 * row + 3));
+                assertArrayEquals(parameters.getShortArray("SHORTS"), Arrays.copyOfRange(shorts, 2 * row, 2 * row + 2));
+                assertEquals(k, index[row]);
+                assertEquals(k / 2f, floats[row]);
+                assertEquals((long) k << 40, longs[row]);
+                assertEquals(-k / 4.0, doubles[row]);
+                assertEquals(k % 3 == 0, flags[row]);
+                assertEquals(parameters.getString("NAME"), new String(names, 4 * row, 4, StandardCharsets.UTF_8));
+            }
+            readable.readParameterColumn("INDEX", 5, 5, new int[0]);
+            assertThrows(NoSuchElementException.class, () -> readable.readParameterColumn("MISSING", 0, 1, index));
+            assertThrows(ClassCastException.class, () -> readable.readParameterColumn("INDEX", 0, 1, floats));
+            assertThrows(IllegalArgumentException.class, () -> readable.readParameterColumn("INDEX", 0, rows + 1, index));
+            assertThrows(IllegalArgumentException.class, () -> readable.readParameterColumn("INDEX", 0, NUMBER_OF_TRACES + 1, new int[2 * NUMBER_OF_TRACES]));
+        }
+    }
+
+    /**
+     * This test checks whether selecting traces by a predicate on their parameters finds exactly the matching traces
+     */
+    @Test
+    void testSelect() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet writable = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("MODE", k % 2 == 0 ? "FIXED " : "RANDOM");
+                parameters.put("KEY", new byte[]{(byte) (k * 7), (byte) k});
+                parameters.put("INDEX", k);
+                writable.add(Trace.create(String.format("Trace %4d", k), FLOAT_SAMPLES, parameters));
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            BitSet fixed = readable.select(parameters -> parameters.getString("MODE").equals("FIXED "));
+            BitSet key = readable.select(parameters -> parameters.getByte("KEY", 0) == 0x2B);
+            ParameterAccessor.IntAccessor index = readable.accessor(new IntegerTypeKey("INDEX"));
+            Predicate<TraceParameterRecord> fixedKey = parameters -> parameters.getString("MODE").startsWith("F");
+            BitSet range = readable.select(100, 200, fixedKey.and(parameters -> index.get(parameters) % 3 == 0));
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = readable.get(k).getParameters();
+                assertEquals(parameters.getString("MODE").equals("FIXED "), fixed.get(k));
+                assertEquals(parameters.getByteArray("KEY")[0] == 0x2B, key.get(k));
+                assertEquals(k >= 100 && k < 200 && k % 2 == 0 && k % 3 == 0, range.get(k));
+            }
+            assertEquals(NUMBER_OF_TRACES / 2, fixed.cardinality());
+            assertFalse(key.isEmpty());
+            assertTrue(readable.select(90, 90, parameters -> true).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> readable.select(-1, 1, parameters -> true));
+        }
+    }
+
+    /**
+     * This test checks whether iterating and streaming a trace set returns all traces
+     */
+    @Test
+    void testIterateAndStream() throws IOException, TRSFormatException {
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + INTS_TRS)) {
+            Iterator<Trace> iterator = readable.iterator();
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                assertTrue(iterator.hasNext());
+                assertArrayEquals(readable.get(k).getSample(), iterator.next().getSample());
+            }
+            assertFalse(iterator.hasNext());
+            assertThrows(NoSuchElementException.class, iterator::next);
+
+            assertEquals(NUMBER_OF_TRACES, readable.stream().count());
+            assertTrue(readable.stream().allMatch(trace -> Arrays.equals(INT_SAMPLES, trace.getSample())));
+            assertEquals(NUMBER_OF_TRACES, readable.parallelStream().count());
+            assertTrue(readable.parallelStream().allMatch(trace -> Arrays.equals(INT_SAMPLES, trace.getSample())));
+        }
+    }
+
+    /**
+     * This test checks whether the size of the write buffer does not influence the written file,
+     * and whether a trace that cannot be encoded does not end up in the file
+     */
+    @Test
+    void testWriteBufferSize() throws IOException, TRSFormatException {
+        Path small = tempDir.resolve(UUID.randomUUID() + TRS);
+        Path large = tempDir.resolve(UUID.randomUUID() + TRS);
+        try (TraceSet smallBuffer = TraceSet.create(small.toString(), TRSMetaData.create(), 1);
+             TraceSet largeBuffer = TraceSet.create(large.toString())) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INDEX", k);
+                smallBuffer.add(Trace.create("title", SHORT_SAMPLES, parameters));
+                largeBuffer.add(Trace.create("title", SHORT_SAMPLES, parameters));
+            }
+            TraceParameterMap parameters = new TraceParameterMap();
+            parameters.put("INDEX", -1);
+            float[] tooLarge = new float[]{1, 2, 3, 4, Short.MAX_VALUE + 1};
+            assertThrows(IllegalArgumentException.class, () -> smallBuffer.add(Trace.create("title", tooLarge, parameters)));
+            assertThrows(IllegalArgumentException.class, () -> largeBuffer.add(Trace.create("title", tooLarge, parameters)));
+        }
+        assertArrayEquals(Files.readAllBytes(large), Files.readAllBytes(small));
+        try (TraceSet readable = TraceSet.open(small.toString())) {
+            assertEquals(NUMBER_OF_TRACES, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            assertEquals(NUMBER_OF_TRACES - 1, readable.get(NUMBER_OF_TRACES - 1).getParameters().getInt("INDEX"));
+        }
+        assertThrows(IllegalArgumentException.class, () -> TraceSet.create(small.toString(), TRSMetaData.create(), 0));
+    }
+
+    /**
+     * This test checks whether traces added from primitive arrays and encoded buffers result in the same file as
+     * traces added with float samples
+     */
+    @Test
+    void testAddPrimitiveSamples() throws IOException, TRSFormatException {
+        byte[] bytes = new byte[BYTE_SAMPLES.length];
+        short[] shorts = new short[SHORT_SAMPLES.length];
+        int[] ints = new int[INT_SAMPLES.length];
+        ByteBuffer encodedShorts = ByteBuffer.allocateDirect(SHORT_SAMPLES.length * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = (byte) BYTE_SAMPLES[k];
+            shorts[k] = (short) SHORT_SAMPLES[k];
+            ints[k] = (int) INT_SAMPLES[k];
+            encodedShorts.putShort(k * Short.BYTES, shorts[k]);
+        }
+        Path expected = tempDir.resolve(UUID.randomUUID() + TRS);
+        Path actual = tempDir.resolve(UUID.randomUUID() + TRS);
+        for (float[] samples : new float[][]{BYTE_SAMPLES, SHORT_SAMPLES, INT_SAMPLES}) {
+            try (TraceSet floatSet = TraceSet.create(expected.toString());
+                 TraceSet typedSet = TraceSet.create(actual.toString())) {
+                for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                    TraceParameterMap parameters = new TraceParameterMap();
+                    parameters.put("INDEX", k);
+                    floatSet.add(Trace.create("title", samples, parameters));
+                    if (samples == BYTE_SAMPLES) {
+                        typedSet.add("title", bytes, parameters);
+                    } else if (samples == SHORT_SAMPLES && k > 0) {
+                        typedSet.add("title", encodedShorts, parameters);
+                    } else if (samples == SHORT_SAMPLES) {
+                        assertThrows(IllegalStateException.class, () -> typedSet.add("title", encodedShorts, parameters));
+                        typedSet.add("title", shorts, parameters);
+                    } else {
+                        typedSet.add("title", ints, parameters);
+                    }
+                }
+                assertEquals(0, encodedShorts.position());
+                if (samples == BYTE_SAMPLES) {
+                    TraceParameterMap parameters = new TraceParameterMap();
+                    parameters.put("INDEX", -1);
+                    assertThrows(IllegalArgumentException.class, () -> typedSet.add("title", shorts, parameters));
+                    assertThrows(IllegalArgumentException.class, () -> typedSet.add("title", new byte[1], parameters));
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+        }
+    }
+
+    /**
+     * This test checks whether a trace set with a declared layout stores the traces as declared,
+     * and whether the room reserved for the expected traces is released when fewer traces are added
+     */
+    @Test
+    void testBuilder() throws IOException, TRSFormatException {
+        Path file = tempDir.resolve(UUID.randomUUID() + TRS);
+        try (TraceSet traceSet = TraceSet.builder(file.toString())
+                .numberOfSamples(BYTE_SAMPLES.length)
+                .sampleCoding(Encoding.SHORT)
+                .titleSpace(8)
+                .parameter("INDEX", ParameterType.INT, 1)
+                .parameter("NAME", ParameterType.STRING, 4)
+                .expectedTraces(2 * NUMBER_OF_TRACES)
+                .create()) {
+            long traceSize = 8 + Integer.BYTES + 4 + BYTE_SAMPLES.length * Short.BYTES;
+            assertTrue(Files.size(file) > 2 * NUMBER_OF_TRACES * traceSize);
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INDEX", k);
+                parameters.put("NAME", "name");
+                traceSet.add(Trace.create("title", BYTE_SAMPLES, parameters));
+            }
+            TraceParameterMap wrongType = new TraceParameterMap();
+            wrongType.put("INDEX", (short) 1);
+            wrongType.put("NAME", "name");
+            assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create("title", BYTE_SAMPLES, wrongType)));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create("title", SHORT_SAMPLES, new TraceParameterMap())));
+        }
+        try (TraceSet readable = TraceSet.open(file.toString())) {
+            TraceSetLayout layout = readable.getLayout();
+            assertEquals(NUMBER_OF_TRACES, layout.getNumberOfTraces());
+            assertEquals(Encoding.SHORT, layout.getEncoding());
+            assertEquals(8, layout.getTitleSpace());
+            assertEquals(layout.getFileSize(), Files.size(file));
+            Trace last = readable.get(NUMBER_OF_TRACES - 1);
+            assertEquals("title", last.getTitle().trim());
+            assertArrayEquals(BYTE_SAMPLES, last.getSample());
+            assertEquals(NUMBER_OF_TRACES - 1, last.getParameters().getInt("INDEX"));
+            assertEquals("name", last.getParameters().getString("NAME"));
+        }
+        assertThrows(IllegalStateException.class, () -> TraceSet.builder(file.toString()).numberOfSamples(1).create());
+        assertThrows(IllegalArgumentException.class, () -> TraceSet.builder(file.toString()).sampleCoding(Encoding.ILLEGAL));
+        assertThrows(IllegalArgumentException.class, () -> TraceSet.builder(file.toString())
+                .parameter("LARGE", ParameterType.BYTE, Short.MAX_VALUE + 1));
+        assertThrows(IllegalArgumentException.class, () -> TraceSet.builder(file.toString())
+                .parameter("LARGE", ParameterType.INT, Short.MAX_VALUE)
+                .parameter("AFTER", ParameterType.BYTE, 1));
+    }
+
+    /**
+     * This test checks whether a memory mapped trace set results in the same file as a buffered one, both when fewer
+     * and when more traces are added than expected, using windows that only hold a few traces each, and whether the
+     * file is released once the trace set is closed
+     */
+    @Test
+    void testBuilderMemoryMapped() throws IOException, TRSFormatException {
+        Path buffered = tempDir.resolve(UUID.randomUUID() + TRS);
+        Path mapped = tempDir.resolve(UUID.randomUUID() + TRS);
+        for (int expectedTraces : new int[]{NUMBER_OF_TRACES / 2, 2 * NUMBER_OF_TRACES}) {
+            try (TraceSet bufferedSet = TraceSet.builder(buffered.toString())
+                    .numberOfSamples(SHORT_SAMPLES.length)
+                    .sampleCoding(Encoding.SHORT)
+                    .parameter("INDEX", ParameterType.INT, 1)
+                    .create();
+                 TraceSet mappedSet = TraceSet.builder(mapped.toString())
+                         .numberOfSamples(SHORT_SAMPLES.length)
+                         .sampleCoding(Encoding.SHORT)
+                         .parameter("INDEX", ParameterType.INT, 1)
+                         .expectedTraces(expectedTraces)
+                         .bufferSize(1000)
+                         .memoryMapped()
+                         .create()) {
+                for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                    TraceParameterMap parameters = new TraceParameterMap();
+                    parameters.put("INDEX", k);
+                    bufferedSet.add(Trace.create("", SHORT_SAMPLES, parameters));
+                    mappedSet.add(Trace.create("", SHORT_SAMPLES, parameters));
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(buffered), Files.readAllBytes(mapped));
+        }
+        assertThrows(IllegalStateException.class, () -> TraceSet.builder(mapped.toString())
+                .numberOfSamples(1).sampleCoding(Encoding.BYTE).memoryMapped().create());
+        //the windows are unmapped when the trace set is closed, so the file is no longer in use
+        Files.delete(mapped);
+    }
+
+    /**
+     * This test checks whether appending traces to an existing trace set results in the same file as writing all
+     * traces at once, and whether traces that do not match the stored layout are rejected
+     */
+    @Test
+    void testOpenForAppend() throws IOException, TRSFormatException {
+        Path expected = tempDir.resolve(UUID.randomUUID() + TRS);
+        Path appended = tempDir.resolve(UUID.randomUUID() + TRS);
+        try (TraceSet traceSet = TraceSet.create(expected.toString())) {
+            for (int k = 0; k < 2 * NUMBER_OF_TRACES; k++) {
+                traceSet.add(appendableTrace(k));
+            }
+        }
+        try (TraceSet traceSet = TraceSet.create(appended.toString())) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                traceSet.add(appendableTrace(k));
+            }
+        }
+        try (TraceSet traceSet = TraceSet.openForAppend(appended.toString())) {
+            assertEquals(NUMBER_OF_TRACES, traceSet.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            for (int k = NUMBER_OF_TRACES; k < 2 * NUMBER_OF_TRACES; k++) {
+                traceSet.add(appendableTrace(k));
+            }
+            TraceParameterMap missing = new TraceParameterMap();
+            assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create("title", SHORT_SAMPLES, missing)));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create(new float[SHORT_SAMPLES.length + 1])));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.get(0));
+        }
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(appended));
+
+        //a file of which the size does not match its header cannot be appended to
+        Files.write(appended, new byte[1], StandardOpenOption.APPEND);
+        assertThrows(IllegalStateException.class, () -> TraceSet.openForAppend(appended.toString()));
+    }
+
+    /**
+     * This test checks whether samples and parameters modified in place are stored, without affecting the rest of
+     * the traces, and whether invalid modifications leave the trace untouched
+     */
+    @Test
+    void testOpenForEdit() throws IOException, TRSFormatException {
+        Path file = tempDir.resolve(UUID.randomUUID() + TRS);
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INDEX", k);
+                parameters.put("RESULT", 0);
+                parameters.put("NAME", "name");
+                traceSet.add(Trace.create("title", SHORT_SAMPLES, parameters));
+            }
+        }
+        try (TraceSet traceSet = TraceSet.openForEdit(file.toString())) {
+            short[] samples = new short[SHORT_SAMPLES.length];
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                traceSet.readSamples(k, samples);
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] -= k % 2;
+                }
+                traceSet.setSamples(k, samples);
+                traceSet.setParameter(k, "RESULT", new IntegerArrayParameter(new int[]{2 * k}));
+            }
+            traceSet.force();
+            assertThrows(IllegalArgumentException.class, () -> traceSet.setSamples(0, new float[SHORT_SAMPLES.length + 1]));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.setSamples(0, new int[]{0, 0, 0, 0, Short.MAX_VALUE + 1}));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.setParameter(0, "UNKNOWN", new IntegerArrayParameter(new int[]{0})));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.setParameter(0, "RESULT", new IntegerArrayParameter(new int[]{0, 0})));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.setParameter(0, "NAME", new StringParameter("longer")));
+            traceSet.setParameter(1, "NAME", new StringParameter("nm"));
+        }
+        try (TraceSet readable = TraceSet.open(file.toString())) {
+            assertEquals(NUMBER_OF_TRACES, readable.getLayout().getNumberOfTraces());
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                Trace trace = readable.get(k);
+                for (int i = 0; i < SHORT_SAMPLES.length; i++) {
+                    assertEquals(SHORT_SAMPLES[i] - k % 2, trace.getSample()[i]);
+                }
+                assertEquals(k, trace.getParameters().getInt("INDEX"));
+                assertEquals(2 * k, trace.getParameters().getInt("RESULT"));
+                assertEquals(k == 1 ? "nm\0\0" : "name", trace.getParameters().getString("NAME"));
+                assertEquals("title", trace.getTitle());
+            }
+            assertThrows(IllegalArgumentException.class, () -> readable.setSamples(0, SHORT_SAMPLES));
+        }
+    }
+
+    private static Trace appendableTrace(int index) {
+        TraceParameterMap parameters = new TraceParameterMap();
+        parameters.put("INDEX", index);
+        parameters.put("NAME", "trace");
+        return Trace.create("title " + index, SHORT_SAMPLES, parameters);
+    }
+
+    /**
+     * This test checks whether traces added asynchronously result in the same file as traces added directly
+     */
+    @Test
+    void testAddAsync() throws IOException, TRSFormatException {
+        Path direct = tempDir.resolve(UUID.randomUUID() + TRS);
+        Path async = tempDir.resolve(UUID.randomUUID() + TRS);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (TraceSet directSet = TraceSet.create(direct.toString());
+             TraceSet asyncSet = TraceSet.create(async.toString())) {
+            asyncSet.setAsyncQueue(16, QueuePolicy.BLOCK);
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INDEX", k);
+                directSet.add(Trace.create("title", SHORT_SAMPLES, parameters));
+                futures.add(asyncSet.addAsync(Trace.create("title", SHORT_SAMPLES, parameters)));
+            }
+            CompletableFuture<Void> invalid = asyncSet.addAsync(Trace.create("title", new float[1], new TraceParameterMap()));
+            assertThrows(ExecutionException.class, invalid::get);
+            assertThrows(IllegalStateException.class, () -> asyncSet.setAsyncQueue(16, QueuePolicy.FAIL));
+
+            AsyncWriteStatistics statistics = asyncSet.getAsyncStatistics();
+            assertEquals(16, statistics.getCapacity());
+            assertEquals(NUMBER_OF_TRACES, statistics.getWritten());
+            assertEquals(1, statistics.getFailed());
+            assertEquals(0, statistics.getQueueDepth());
+        }
+        assertTrue(futures.stream().allMatch(future -> future.isDone() && !future.isCompletedExceptionally()));
+        assertArrayEquals(Files.readAllBytes(direct), Files.readAllBytes(async));
+    }
+
+    /**
+     * This test checks whether traces that do not fit in a full queue are accounted for, whichever policy is used
+     */
+    @Test
+    void testAddAsyncQueuePolicies() throws IOException, TRSFormatException {
+        for (QueuePolicy policy : new QueuePolicy[]{QueuePolicy.FAIL, QueuePolicy.DROP}) {
+            Path async = tempDir.resolve(UUID.randomUUID() + TRS);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            AsyncWriteStatistics statistics;
+            try (TraceSet asyncSet = TraceSet.create(async.toString())) {
+                asyncSet.setAsyncQueue(1, policy);
+                for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                    futures.add(asyncSet.addAsync(Trace.create(FLOAT_SAMPLES)));
+                }
+                statistics = asyncSet.getAsyncStatistics();
+            }
+            long cancelled = futures.stream().filter(CompletableFuture::isCancelled).count();
+            long rejected = futures.stream().filter(future -> future.isCompletedExceptionally() && !future.isCancelled()).count();
+            assertEquals(policy == QueuePolicy.DROP ? cancelled : rejected, statistics.getDropped() + statistics.getRejected());
+            try (TraceSet readable = TraceSet.open(async.toString())) {
+                assertEquals(NUMBER_OF_TRACES - cancelled - rejected, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            }
+        }
+    }
+
+    /**
+     * This test checks whether every trace added asynchronously while the trace set is being closed is either added,
+     * or reported as not added, and whether traces can no longer be added directly once the background writer started
+     */
+    @Test
+    void testAddAsyncWhileClosing() throws IOException, TRSFormatException, InterruptedException {
+        int numberOfThreads = 4;
+        for (int round = 0; round < 8; round++) {
+            Path async = tempDir.resolve(UUID.randomUUID() + TRS);
+            List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch started = new CountDownLatch(numberOfThreads);
+            List<Thread> threads = new ArrayList<>();
+            TraceSet asyncSet = TraceSet.create(async.toString());
+            asyncSet.setAsyncQueue(4, QueuePolicy.BLOCK);
+            futures.add(asyncSet.addAsync(Trace.create(FLOAT_SAMPLES)));
+            assertThrows(IllegalStateException.class, () -> asyncSet.add(Trace.create(FLOAT_SAMPLES)));
+            for (int t = 0; t < numberOfThreads; t++) {
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    try {
+                        for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                            futures.add(asyncSet.addAsync(Trace.create(FLOAT_SAMPLES)));
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        //the trace set has been closed
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            started.await();
+            asyncSet.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long added;
+            synchronized (futures) {
+                assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+                added = futures.stream().filter(future -> !future.isCompletedExceptionally()).count();
+            }
+            try (TraceSet readable = TraceSet.open(async.toString())) {
+                assertEquals(added, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            }
+        }
+    }
+
+    /**
+     * This test checks whether a single TraceSet can be read from multiple threads at the same time
+     */
+    @Test
+    void testConcurrentRead() throws IOException, TRSFormatException, InterruptedException, ExecutionException {
+        int numberOfThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath() + File.separator + SHORTS_TRS)) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int offset = t;
+                results.add(executor.submit(() -> {
+                    int tracesRead = 0;
+                    for (int k = offset; k < NUMBER_OF_TRACES; k += 3) {
+                        assertArrayEquals(SHORT_SAMPLES, readable.get(k).getSample(), 0.01f);
+                        tracesRead++;
+                    }
+                    return tracesRead;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertTrue(result.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test to reproduce Github issue #65: TRS files remain 'in use' after they have been closed
      * Test this issue by opening and closing a file, and then checking whether the file can be deleted.
@@ -0,0 +1,89 @@
+package com.riscure.trs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how random access reads on a single shared TraceSet scale with the number of reading threads.
+ * This is not part of the unit tests; run it manually using the main method:
+ * <pre>
+ *     ConcurrentReadBenchmark [numberOfTraces] [numberOfSamples] [maxThreads]
+ * </pre>
+ */
+public class ConcurrentReadBenchmark {
+    private static final int READS_PER_THREAD = 20000;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final String RESULT_FORMAT = "%3d thread(s): %10.0f traces/s (%5.2fx)%n";
+
+    public static void main(String[] args) throws IOException, TRSFormatException {
+        int numberOfTraces = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int numberOfSamples = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Path file = Files.createTempFile("ConcurrentReadBenchmark", ".trs");
+        try {
+            createTraceSet(file, numberOfTraces, numberOfSamples);
+            try (TraceSet traceSet = TraceSet.open(file.toString())) {
+                for (int k = 0; k < WARMUP_ROUNDS; k++) {
+                    measure(traceSet, numberOfTraces, maxThreads);
+                }
+                double baseline = 0;
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    double tracesPerSecond = measure(traceSet, numberOfTraces, threads);
+                    if (threads == 1) baseline = tracesPerSecond;
+                    System.out.printf(RESULT_FORMAT, threads, tracesPerSecond, tracesPerSecond / baseline);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void createTraceSet(Path file, int numberOfTraces, int numberOfSamples) throws IOException, TRSFormatException {
+        Random random = new Random(0);
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            float[] samples = new float[numberOfSamples];
+            for (int k = 0; k < numberOfTraces; k++) {
+                for (int s = 0; s < numberOfSamples; s++) {
+                    samples[s] = random.nextFloat();
+                }
+                traceSet.add(Trace.create(samples));
+            }
+        }
+    }
+
+    private static double measure(TraceSet traceSet, int numberOfTraces, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Double>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                results.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    double checksum = 0;
+                    for (int k = 0; k < READS_PER_THREAD; k++) {
+                        checksum += traceSet.get(random.nextInt(numberOfTraces)).getSample()[0];
+                    }
+                    return checksum;
+                }));
+            }
+            for (Future<Double> result : results) {
+                result.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            return (double) threads * READS_PER_THREAD * 1e9 / elapsed;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.riscure.trs;
+
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests writing trace sets from multiple threads, by comparing the result with a trace set written sequentially
+ */
+public class ConcurrentTraceWriterTest {
+    private static final int TRACES = 1000;
+    private static final int NUMBER_OF_SAMPLES = 50;
+    private static final int THREADS = 4;
+    private Path expected;
+    private Path actual;
+
+    @BeforeEach
+    public void createExpected() throws IOException, TRSFormatException {
+        expected = Files.createTempFile("ConcurrentTraceWriterTest", ".trs");
+        actual = Files.createTempFile("ConcurrentTraceWriterTest", ".trs");
+        try (TraceSet traceSet = TraceSet.create(expected.toString())) {
+            for (int k = 0; k < TRACES; k++) {
+                traceSet.add(traceOf(k));
+            }
+        }
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException, InterruptedException {
+        //We need to allow a little time for java to release all handles
+        System.gc();
+        Thread.sleep(100);
+        Files.deleteIfExists(expected);
+        Files.deleteIfExists(actual);
+    }
+
+    private static Trace traceOf(int index) {
+        float[] samples = new float[NUMBER_OF_SAMPLES];
+        for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+            samples[k] = (short) (index * 31 + k * 100);
+        }
+        TraceParameterMap parameters = new TraceParameterMap();
+        parameters.put("INDEX", index);
+        parameters.put("NAME", String.format("trace %04d", index));
+        return Trace.create("Trace " + index, samples, parameters);
+    }
+
+    @Test
+    void testSubmissionOrder() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (TraceSet traceSet = TraceSet.create(actual.toString())) {
+            try (ConcurrentTraceWriter writer = traceSet.concurrentWriter(THREADS, ConcurrentTraceWriter.CommitOrder.SUBMISSION)) {
+                for (int k = 0; k < TRACES; k++) {
+                    futures.add(writer.submit(traceOf(k)));
+                }
+                assertThrows(IllegalStateException.class, () -> writer.submit(0, traceOf(0)));
+            }
+        }
+        futures.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+    }
+
+    /**
+     * This test submits the traces from several producer threads, which each assign the index of their traces
+     */
+    @Test
+    void testIndexOrder() throws Exception {
+        ExecutorService producers = Executors.newFixedThreadPool(THREADS);
+        try (TraceSet traceSet = TraceSet.create(actual.toString())) {
+            try (ConcurrentTraceWriter writer = traceSet.concurrentWriter(THREADS, ConcurrentTraceWriter.CommitOrder.INDEX)) {
+                List<Future<?>> results = new ArrayList<>();
+                for (int p = 0; p < THREADS; p++) {
+                    int producer = p;
+                    results.add(producers.submit(() -> {
+                        for (int k = producer; k < TRACES; k += THREADS) {
+                            writer.submit(k, traceOf(k));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+                assertThrows(IllegalArgumentException.class, () -> writer.submit(0, traceOf(0)));
+            }
+        } finally {
+            producers.shutdown();
+        }
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+    }
+
+    @Test
+    void testInvalidTraceIsSkipped() throws Exception {
+        CompletableFuture<Void> invalid;
+        try (TraceSet traceSet = TraceSet.create(actual.toString())) {
+            try (ConcurrentTraceWriter writer = traceSet.concurrentWriter(THREADS, ConcurrentTraceWriter.CommitOrder.SUBMISSION)) {
+                writer.submit(traceOf(0));
+                invalid = writer.submit(Trace.create(new float[NUMBER_OF_SAMPLES + 1]));
+                writer.submit(traceOf(1));
+            }
+            assertThrows(IllegalArgumentException.class, () -> traceSet.concurrentWriter(0, ConcurrentTraceWriter.CommitOrder.INDEX));
+        }
+        ExecutionException ex = assertThrows(ExecutionException.class, invalid::get);
+        assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        try (TraceSet readable = TraceSet.open(actual.toString())) {
+            assertEquals(2, readable.getMetaData().getInt(NUMBER_OF_TRACES));
+            assertEquals(1, readable.get(1).getParameters().getInt("INDEX"));
+        }
+    }
+}
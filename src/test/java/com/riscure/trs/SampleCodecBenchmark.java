@@ -0,0 +1,103 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compares the narrowing conversions of {@link SampleCodec}, which check all samples in a separate pass before
+ * writing them, with converting one sample at a time with the range check inside the loop, which is how samples used
+ * to be converted.
+ * This is not part of the unit tests; run it manually using the main method:
+ * <pre>
+ *     SampleCodecBenchmark [numberOfSamples] [rounds] [conversion]
+ * </pre>
+ * Measuring every conversion in a separate JVM, by naming it, gives the most reliable numbers, since the JIT compiler
+ * then only sees a single kernel of each kind. Widening conversions are not measured, since they are decoded one
+ * sample at a time either way.
+ */
+public class SampleCodecBenchmark {
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final String RESULT_FORMAT = "%-24s per sample: %6.3f ns, codec: %6.3f ns (%5.2fx)%n";
+
+    private static String conversion;   //the only conversion to measure, or null to measure all of them
+
+    public static void main(String[] args) throws TRSFormatException {
+        int numberOfSamples = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        conversion = args.length > 2 ? args[2] : null;
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect(numberOfSamples).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer shorts = ByteBuffer.allocateDirect(numberOfSamples * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        float[] floatSamples = new float[numberOfSamples];
+        int[] intSamples = new int[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            floatSamples[k] = (byte) k;
+            intSamples[k] = (short) (k * 31);
+        }
+
+        compare("encode float to BYTE", numberOfSamples, rounds,
+                () -> perSampleEncodeBytes(floatSamples, bytes),
+                () -> SampleCodec.encode(floatSamples, Encoding.BYTE, rewind(bytes)));
+        compare("encode float to SHORT", numberOfSamples, rounds,
+                () -> perSampleEncodeShorts(floatSamples, shorts),
+                () -> SampleCodec.encode(floatSamples, Encoding.SHORT, rewind(shorts)));
+        compare("encode int to SHORT", numberOfSamples, rounds,
+                () -> perSampleEncodeShorts(intSamples, shorts),
+                () -> SampleCodec.encode(intSamples, Encoding.SHORT, rewind(shorts)));
+    }
+
+    private interface Kernel {
+        void run() throws TRSFormatException;
+    }
+
+    private static void compare(String name, int numberOfSamples, int rounds, Kernel perSample, Kernel codec) throws TRSFormatException {
+        if (conversion != null && !name.equals(conversion)) return;
+        measure(perSample, WARMUP_ROUNDS);
+        measure(codec, WARMUP_ROUNDS);
+        double perSampleNanos = measure(perSample, rounds) / numberOfSamples;
+        double codecNanos = measure(codec, rounds) / numberOfSamples;
+        System.out.printf(RESULT_FORMAT, name, perSampleNanos, codecNanos, perSampleNanos / codecNanos);
+    }
+
+    /**
+     * @return the average number of nanoseconds of a single run of the kernel
+     */
+    private static double measure(Kernel kernel, int rounds) throws TRSFormatException {
+        long start = System.nanoTime();
+        for (int k = 0; k < rounds; k++) {
+            kernel.run();
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+
+    private static ByteBuffer rewind(ByteBuffer buffer) {
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void perSampleEncodeBytes(float[] samples, ByteBuffer target) {
+        target.clear();
+        for (float sample : samples) {
+            if (sample != (byte) sample) throw new IllegalArgumentException();
+            target.put((byte) sample);
+        }
+    }
+
+    private static void perSampleEncodeShorts(float[] samples, ByteBuffer target) {
+        target.clear();
+        for (float sample : samples) {
+            if (sample != (short) sample) throw new IllegalArgumentException();
+            target.putShort((short) sample);
+        }
+    }
+
+    private static void perSampleEncodeShorts(int[] samples, ByteBuffer target) {
+        target.clear();
+        for (int sample : samples) {
+            if (sample != (short) sample) throw new IllegalArgumentException();
+            target.putShort((short) sample);
+        }
+    }
+}
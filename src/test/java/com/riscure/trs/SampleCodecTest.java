@@ -0,0 +1,119 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests encoding samples and decoding them again, for counts that span several conversion chunks
+ */
+public class SampleCodecTest {
+    private static final int COUNT = 10000;
+    private static final Encoding[] ENCODINGS = {Encoding.BYTE, Encoding.SHORT, Encoding.INT, Encoding.FLOAT};
+
+    private static ByteBuffer buffer(int count, Encoding encoding) {
+        //a direct buffer with an odd offset, like the samples of a trace within a mapped file
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 + count * encoding.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(1);
+        return buffer;
+    }
+
+    @Test
+    void testByteSamples() throws TRSFormatException {
+        byte[] samples = new byte[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            samples[k] = (byte) k;
+        }
+        for (Encoding encoding : ENCODINGS) {
+            ByteBuffer buffer = buffer(COUNT, encoding);
+            SampleCodec.encode(samples, encoding, buffer);
+            assertEquals(buffer.capacity(), buffer.position());
+            float[] floats = new float[COUNT];
+            SampleCodec.decode(buffer, 1, encoding, COUNT, floats, 0);
+            int[] ints = new int[COUNT];
+            if (encoding != Encoding.FLOAT) SampleCodec.decode(buffer, 1, encoding, COUNT, ints, 0);
+            for (int k = 0; k < COUNT; k++) {
+                assertEquals(samples[k], floats[k]);
+                if (encoding != Encoding.FLOAT) assertEquals(samples[k], ints[k]);
+            }
+        }
+    }
+
+    @Test
+    void testShortSamples() throws TRSFormatException {
+        short[] samples = new short[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            samples[k] = (short) (k * 7 - COUNT);
+        }
+        for (Encoding encoding : ENCODINGS) {
+            ByteBuffer buffer = buffer(COUNT, encoding);
+            if (encoding == Encoding.BYTE) {
+                assertThrows(IllegalArgumentException.class, () -> SampleCodec.encode(samples, encoding, buffer));
+                assertEquals(1, buffer.position());
+                continue;
+            }
+            SampleCodec.encode(samples, encoding, buffer);
+            assertEquals(buffer.capacity(), buffer.position());
+            float[] floats = new float[COUNT + 1];
+            SampleCodec.decode(buffer, 1, encoding, COUNT, floats, 1);
+            short[] shorts = new short[COUNT];
+            if (encoding == Encoding.SHORT) SampleCodec.decode(buffer, 1, encoding, COUNT, shorts, 0);
+            for (int k = 0; k < COUNT; k++) {
+                assertEquals(samples[k], floats[k + 1]);
+                if (encoding == Encoding.SHORT) assertEquals(samples[k], shorts[k]);
+            }
+        }
+    }
+
+    @Test
+    void testIntSamples() throws TRSFormatException {
+        int[] samples = new int[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            samples[k] = k * 3 - COUNT;
+        }
+        for (Encoding encoding : ENCODINGS) {
+            ByteBuffer buffer = buffer(COUNT, encoding);
+            if (encoding == Encoding.BYTE) {
+                assertThrows(IllegalArgumentException.class, () -> SampleCodec.encode(samples, encoding, buffer));
+                assertEquals(1, buffer.position());
+                continue;
+            }
+            SampleCodec.encode(samples, encoding, buffer);
+            int[] ints = new int[COUNT];
+            if (encoding != Encoding.FLOAT) SampleCodec.decode(buffer, 1, encoding, COUNT, ints, 0);
+            float[] floats = new float[COUNT];
+            SampleCodec.decode(buffer, 1, encoding, COUNT, floats, 0);
+            for (int k = 0; k < COUNT; k++) {
+                assertEquals((float) samples[k], floats[k]);
+                if (encoding != Encoding.FLOAT) assertEquals(samples[k], ints[k]);
+            }
+        }
+        int[] tooLarge = {0, Short.MAX_VALUE + 1};
+        assertThrows(IllegalArgumentException.class, () -> SampleCodec.encode(tooLarge, Encoding.SHORT, buffer(2, Encoding.SHORT)));
+    }
+
+    @Test
+    void testFloatSamples() throws TRSFormatException {
+        float[] samples = new float[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            samples[k] = (byte) k;
+        }
+        for (Encoding encoding : ENCODINGS) {
+            ByteBuffer buffer = buffer(COUNT, encoding);
+            SampleCodec.encode(samples, encoding, buffer);
+            float[] floats = new float[COUNT];
+            SampleCodec.decode(buffer, 1, encoding, COUNT, floats, 0);
+            assertArrayEquals(samples, floats);
+        }
+        for (float invalid : new float[]{0.5f, Byte.MAX_VALUE + 1, Float.NaN}) {
+            ByteBuffer buffer = buffer(2, Encoding.BYTE);
+            assertThrows(IllegalArgumentException.class, () -> SampleCodec.encode(new float[]{1, invalid}, Encoding.BYTE, buffer));
+            assertEquals(1, buffer.position());
+        }
+        assertThrows(TRSFormatException.class, () -> SampleCodec.encode(samples, Encoding.ILLEGAL, buffer(0, Encoding.BYTE)));
+    }
+}
@@ -0,0 +1,164 @@
+package com.riscure.trs;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests reading trace sets that are mapped in more than one segment, using artificially small segments
+ */
+public class SegmentedTraceSetTest {
+    private static final int NUMBER_OF_TRACES = 100;
+    private static final int NUMBER_OF_SAMPLES = 7;
+    private static final long TRACE_SIZE = NUMBER_OF_SAMPLES * Float.BYTES;
+    private static Path file;
+
+    @BeforeAll
+    public static void createTraceSet() throws IOException, TRSFormatException {
+        file = Files.createTempFile("SegmentedTraceSetTest", ".trs");
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                traceSet.add(Trace.create(samplesOf(k)));
+            }
+        }
+    }
+
+    @AfterAll
+    public static void cleanup() throws IOException, InterruptedException {
+        //We need to allow a little time for java to release all handles
+        System.gc();
+        Thread.sleep(100);
+        Files.deleteIfExists(file);
+    }
+
+    private static float[] samplesOf(int traceIndex) {
+        float[] samples = new float[NUMBER_OF_SAMPLES];
+        for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+            samples[k] = traceIndex + k / 10f;
+        }
+        return samples;
+    }
+
+    @Test
+    void testRandomAccessAcrossSegments() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 3 * TRACE_SIZE + 1)) {
+            Random random = new Random(0);
+            for (int k = 0; k < 10 * NUMBER_OF_TRACES; k++) {
+                int index = random.nextInt(NUMBER_OF_TRACES);
+                assertArrayEquals(samplesOf(index), traceSet.get(index).getSample());
+            }
+        }
+    }
+
+    /**
+     * This test ensures that threads reading a freshly opened set concurrently all share a single mapping of every segment
+     */
+    @Test
+    void testConcurrentFirstAccess() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            try (TraceSet traceSet = TraceSet.open(file.toString(), 3 * TRACE_SIZE + 1)) {
+                int threads = 8;
+                CountDownLatch start = new CountDownLatch(1);
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Future<TraceSet.MappedSegment>> segments = new ArrayList<>();
+                for (int k = 0; k < threads; k++) {
+                    segments.add(executor.submit(() -> {
+                        start.await();
+                        return traceSet.segmentFor(0);
+                    }));
+                }
+                start.countDown();
+                for (Future<TraceSet.MappedSegment> segment : segments) {
+                    assertSame(segments.get(0).get(), segment.get());
+                }
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testRangeAcrossSegments() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 4 * TRACE_SIZE)) {
+            float[] samples = new float[NUMBER_OF_TRACES * NUMBER_OF_SAMPLES];
+            traceSet.readSamples(0, NUMBER_OF_TRACES, samples);
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                for (int s = 0; s < NUMBER_OF_SAMPLES; s++) {
+                    assertEquals(samplesOf(k)[s], samples[k * NUMBER_OF_SAMPLES + s]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCursorAcrossSegments() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 5 * TRACE_SIZE + 3)) {
+            TraceCursor cursor = traceSet.cursor();
+            float[] samples = new float[NUMBER_OF_SAMPLES];
+            int count = 0;
+            while (cursor.next()) {
+                cursor.readSamples(samples, 0);
+                assertArrayEquals(samplesOf(cursor.getIndex()), samples);
+                count++;
+            }
+            assertEquals(NUMBER_OF_TRACES, count);
+        }
+    }
+
+    @Test
+    void testIteratorAcrossSegments() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 6 * TRACE_SIZE)) {
+            int index = 0;
+            for (Trace trace : traceSet) {
+                assertArrayEquals(samplesOf(index++), trace.getSample());
+            }
+            assertEquals(NUMBER_OF_TRACES, index);
+        }
+    }
+
+    @Test
+    void testParallelStreamAcrossSegments() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 8 * TRACE_SIZE)) {
+            int[] indices = traceSet.parallelStream()
+                    .mapToInt(trace -> (int) trace.getSample()[0])
+                    .toArray();
+            assertEquals(NUMBER_OF_TRACES, indices.length);
+            for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                assertEquals(k, indices[k]);
+            }
+        }
+    }
+
+    @Test
+    void testSplitAtSegmentBoundaries() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), 8 * TRACE_SIZE)) {
+            Spliterator<Trace> suffix = traceSet.parallelStream().spliterator();
+            Spliterator<Trace> prefix = suffix.trySplit();
+            assertEquals(48, prefix.estimateSize());
+            assertEquals(NUMBER_OF_TRACES - 48, suffix.estimateSize());
+            Spliterator<Trace> segment = prefix.trySplit();
+            assertEquals(24, segment.estimateSize());
+            assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+        }
+    }
+
+    @Test
+    void testTraceLargerThanSegment() throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.open(file.toString(), TRACE_SIZE - 1)) {
+            assertThrows(IOException.class, () -> traceSet.get(0));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.riscure.trs.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests reading the values written by a {@link LittleEndianOutputStream} from a {@link LittleEndianBuffer}
+ */
+public class LittleEndianBufferTest {
+    private static final int COUNT = 1000;
+
+    @Test
+    void testScalars() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(baos)) {
+            dos.writeByte(-1);
+            dos.writeShort(-2);
+            dos.writeInt(-3);
+            dos.writeLong(Long.MIN_VALUE + 4);
+            dos.writeFloat(5.5f);
+            dos.writeDouble(-6.25);
+            dos.writeBoolean(true);
+        }
+        LittleEndianBuffer buffer = LittleEndianBuffer.wrap(baos.toByteArray());
+        assertEquals(-1, buffer.readByte());
+        assertEquals(-2, buffer.readShort());
+        assertEquals(-3, buffer.readInt());
+        assertEquals(Long.MIN_VALUE + 4, buffer.readLong());
+        assertEquals(5.5f, buffer.readFloat());
+        assertEquals(-6.25, buffer.readDouble());
+        assertTrue(buffer.readBoolean());
+        assertEquals(0, buffer.remaining());
+        assertThrows(EOFException.class, buffer::readByte);
+    }
+
+    @Test
+    void testArrays() throws IOException {
+        short[] shorts = new short[COUNT];
+        int[] ints = new int[COUNT];
+        float[] floats = new float[COUNT];
+        long[] longs = new long[COUNT];
+        double[] doubles = new double[COUNT];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(0x7F);   //an odd offset, so none of the arrays start aligned
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(baos)) {
+            for (int k = 0; k < COUNT; k++) {
+                shorts[k] = (short) (k * 71);
+                ints[k] = k * 1_000_003;
+                floats[k] = k / 3f;
+                longs[k] = k * 1_000_000_007L << 8;
+                doubles[k] = -k / 7.0;
+            }
+            for (short value : shorts) dos.writeShort(value);
+            for (int value : ints) dos.writeInt(value);
+            for (float value : floats) dos.writeFloat(value);
+            for (long value : longs) dos.writeLong(value);
+            for (double value : doubles) dos.writeDouble(value);
+        }
+        byte[] bytes = baos.toByteArray();
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+        source.position(1);
+        LittleEndianBuffer buffer = new LittleEndianBuffer(source);
+        short[] shortsRead = new short[COUNT];
+        int[] intsRead = new int[COUNT];
+        float[] floatsRead = new float[COUNT];
+        long[] longsRead = new long[COUNT];
+        double[] doublesRead = new double[COUNT];
+        buffer.get(shortsRead);
+        buffer.get(intsRead);
+        buffer.get(floatsRead);
+        buffer.get(longsRead);
+        buffer.get(doublesRead);
+        assertArrayEquals(shorts, shortsRead);
+        assertArrayEquals(ints, intsRead);
+        assertArrayEquals(floats, floatsRead);
+        assertArrayEquals(longs, longsRead);
+        assertArrayEquals(doubles, doublesRead);
+        assertEquals(0, buffer.remaining());
+        assertEquals(1, source.position());
+
+        LittleEndianBuffer tooShort = LittleEndianBuffer.wrap(bytes, 1, 2 * COUNT - 1);
+        assertThrows(EOFException.class, () -> tooShort.get(new short[COUNT]));
+        assertEquals(2 * COUNT - 1, tooShort.remaining());
+    }
+}
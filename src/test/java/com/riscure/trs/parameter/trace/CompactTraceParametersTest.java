@@ -0,0 +1,86 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.types.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactTraceParametersTest {
+    private TraceParameterMap source;
+    private TraceParameterSchema schema;
+    private CompactTraceParameters compact;
+
+    @BeforeEach
+    public void setup() {
+        source = new TraceParameterMap();
+        source.put("INPUT", new byte[]{1, 2, 3, 4});
+        source.put("SHORT", (short) -5);
+        source.put("INT", -123456789);
+        source.put("FLOAT", 1.5f);
+        source.put("LONG", Long.MIN_VALUE + 7);
+        source.put("DOUBLES", new double[]{6.25, -7});
+        source.put("NAME", "compact");
+        source.put("FLAG", true);
+
+        schema = new TraceParameterSchema(TraceParameterDefinitionMap.createFrom(source));
+        compact = CompactTraceParameters.of(source.toByteArray(), schema);
+    }
+
+    @Test
+    public void testTypedKeys() {
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, compact.getOrElseThrow(new ByteArrayTypeKey("INPUT")));
+        assertEquals((short) -5, compact.getOrElseThrow(new ShortTypeKey("SHORT")));
+        assertArrayEquals(new short[]{-5}, compact.getOrElseThrow(new ShortArrayTypeKey("SHORT")));
+        assertEquals(-123456789, compact.getOrElseThrow(new IntegerTypeKey("INT")));
+        assertEquals(Long.MIN_VALUE + 7, compact.getOrElseThrow(new LongTypeKey("LONG")));
+        assertArrayEquals(new double[]{6.25, -7}, compact.getOrElseThrow(new DoubleArrayTypeKey("DOUBLES")));
+        assertEquals("compact", compact.getOrElseThrow(new StringTypeKey("NAME")));
+        assertTrue(compact.getOrElseThrow(new BooleanTypeKey("FLAG")));
+        assertFalse(compact.get(new IntegerTypeKey("MISSING")).isPresent());
+        assertEquals(3, compact.getOrDefault(new IntegerTypeKey("MISSING"), 3));
+        assertThrows(ClassCastException.class, () -> compact.get(new IntegerTypeKey("SHORT")));
+        assertThrows(ClassCastException.class, () -> compact.get(new DoubleTypeKey("DOUBLES")));
+    }
+
+    @Test
+    public void testScalarGetters() {
+        assertEquals(1, compact.getByteArray("INPUT")[0]);
+        assertEquals(-5, compact.getShort("SHORT"));
+        assertEquals(-123456789, compact.getInt("INT"));
+        assertEquals(1.5f, compact.getFloat("FLOAT"));
+        assertEquals(Long.MIN_VALUE + 7, compact.getLong("LONG"));
+        assertEquals("compact", compact.getString("NAME"));
+        assertTrue(compact.getBoolean("FLAG"));
+        assertThrows(ClassCastException.class, () -> compact.getFloat("INT"));
+        assertThrows(ClassCastException.class, () -> compact.getByte("INPUT"));
+        assertThrows(NoSuchElementException.class, () -> compact.getInt("MISSING"));
+    }
+
+    @Test
+    public void testSameAsParameterMap() {
+        assertEquals(new ArrayList<>(source.keySet()), new ArrayList<>(compact.keySet()));
+        assertEquals(source.size(), compact.size());
+        assertTrue(compact.containsKey("FLAG"));
+        assertEquals(source, compact.toParameterMap().copy());
+        assertArrayEquals(source.toByteArray(), compact.toByteArray());
+        for (String key : source.keySet()) {
+            assertEquals(source.get(key), compact.toParameterMap().get(key));
+        }
+    }
+
+    @Test
+    public void testSharedSchema() {
+        CompactTraceParameters other = CompactTraceParameters.of(source.toByteArray(), schema);
+        assertSame(compact.getSchema(), other.getSchema());
+        assertEquals(compact, other);
+        assertEquals(compact.hashCode(), other.hashCode());
+        assertEquals(schema.getOffset(schema.indexOf("INT")), 4 + 2);
+        assertEquals(-1, schema.indexOf("MISSING"));
+        assertThrows(IllegalArgumentException.class, () -> CompactTraceParameters.of(new byte[1], schema));
+    }
+}
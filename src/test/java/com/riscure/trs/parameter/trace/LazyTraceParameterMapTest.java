@@ -0,0 +1,65 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyTraceParameterMapTest {
+    private TraceParameterMap source;
+    private TraceParameterMap lazy;
+
+    @BeforeEach
+    public void setup() {
+        source = new TraceParameterMap();
+        source.put("INPUT", new byte[]{1, 2, 3, 4});
+        source.put("SHORT", (short) 5);
+        source.put("NAME", "lazy");
+        source.put("DOUBLES", new double[]{6, 7});
+        source.put("FLAG", true);
+
+        lazy = TraceParameterMap.deserialize(source.toByteArray(), TraceParameterDefinitionMap.createFrom(source));
+    }
+
+    @Test
+    public void testSingleKey() {
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, lazy.getByteArray("INPUT"));
+        assertEquals("lazy", lazy.getString("NAME"));
+        assertSame(lazy.get("DOUBLES"), lazy.get("DOUBLES"));
+        assertNull(lazy.get("MISSING"));
+        assertTrue(lazy.containsKey("FLAG"));
+        assertEquals(source.size(), lazy.size());
+    }
+
+    @Test
+    public void testWholeMap() {
+        assertEquals(new ArrayList<>(source.keySet()), new ArrayList<>(lazy.keySet()));
+        lazy.forEach((key, value) -> assertEquals(source.get(key), value));
+        assertEquals(source.toString(), lazy.toString());
+        assertArrayEquals(source.toByteArray(), lazy.toByteArray());
+        assertEquals(source, lazy.copy());
+    }
+
+    @Test
+    public void testUnmodifiable() {
+        assertThrows(UnsupportedOperationException.class, () -> lazy.put("INPUT", new byte[]{0}));
+        assertThrows(UnsupportedOperationException.class, () -> lazy.remove("INPUT"));
+        assertThrows(UnsupportedOperationException.class, () -> lazy.computeIfAbsent("NEW", key -> null));
+        assertThrows(UnsupportedOperationException.class, () -> lazy.entrySet().clear());
+    }
+
+    /**
+     * This test ensures that the map does not depend on the byte array it was deserialized from
+     */
+    @Test
+    public void testIndependentOfSource() {
+        byte[] bytes = source.toByteArray();
+        TraceParameterMap map = TraceParameterMap.deserialize(bytes, TraceParameterDefinitionMap.createFrom(source));
+        Arrays.fill(bytes, (byte) 0);
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, map.getByteArray("INPUT"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.types.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParameterAccessorTest {
+    private byte[] data;
+    private TraceParameterSchema schema;
+
+    @BeforeEach
+    public void setup() {
+        TraceParameterMap source = new TraceParameterMap();
+        source.put("INPUT", new byte[]{1, 2, 3});
+        source.put("BYTE", (byte) -1);
+        source.put("SHORT", (short) -300);
+        source.put("INT", 123456789);
+        source.put("FLOAT", -2.5f);
+        source.put("LONG", Long.MAX_VALUE - 9);
+        source.put("DOUBLE", Math.PI);
+        source.put("FLAG", true);
+        data = source.toByteArray();
+        schema = new TraceParameterSchema(TraceParameterDefinitionMap.createFrom(source));
+    }
+
+    @Test
+    public void testRecordAndCompact() {
+        CompactTraceParameters compact = CompactTraceParameters.of(data, schema);
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 5).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(5);
+        buffer.put(data);
+        TraceParameterRecord record = new TraceParameterRecord(schema);
+        record.moveTo(buffer, 5);
+
+        ParameterAccessor.IntAccessor intAccessor = schema.accessor(new IntegerTypeKey("INT"));
+        assertEquals(123456789, intAccessor.get(compact));
+        assertEquals(123456789, intAccessor.get(record));
+
+        ParameterAccessor.ByteAccessor byteAccessor = schema.accessor(new ByteTypeKey("BYTE"));
+        ParameterAccessor.ShortAccessor shortAccessor = schema.accessor(new ShortTypeKey("SHORT"));
+        ParameterAccessor.FloatAccessor floatAccessor = schema.accessor(new FloatTypeKey("FLOAT"));
+        ParameterAccessor.LongAccessor longAccessor = schema.accessor(new LongTypeKey("LONG"));
+        ParameterAccessor.DoubleAccessor doubleAccessor = schema.accessor(new DoubleTypeKey("DOUBLE"));
+        ParameterAccessor.BooleanAccessor booleanAccessor = schema.accessor(new BooleanTypeKey("FLAG"));
+        assertEquals(-1, byteAccessor.get(record));
+        assertEquals(-300, shortAccessor.get(compact));
+        assertEquals(-300, shortAccessor.get(record));
+        assertEquals(-2.5f, floatAccessor.get(record));
+        assertEquals(-2.5f, floatAccessor.get(compact));
+        assertEquals(Long.MAX_VALUE - 9, longAccessor.get(compact));
+        assertEquals(Long.MAX_VALUE - 9, longAccessor.get(record));
+        assertEquals(Math.PI, doubleAccessor.get(record));
+        assertEquals(Math.PI, doubleAccessor.get(compact));
+        assertTrue(booleanAccessor.get(compact));
+        assertEquals("INT", intAccessor.getKey());
+        assertEquals(3 + 1 + 2, intAccessor.getOffset());
+    }
+
+    @Test
+    public void testBinding() {
+        assertThrows(NoSuchElementException.class, () -> schema.accessor(new IntegerTypeKey("MISSING")));
+        assertThrows(ClassCastException.class, () -> schema.accessor(new IntegerTypeKey("SHORT")));
+        assertThrows(ClassCastException.class, () -> schema.accessor(new ByteTypeKey("INPUT")));
+
+        //an equal schema is accepted, a different layout is not
+        ParameterAccessor.IntAccessor accessor = schema.accessor(new IntegerTypeKey("INT"));
+        TraceParameterSchema equal = new TraceParameterSchema(schema.getDefinitions().copy());
+        assertEquals(123456789, accessor.get(CompactTraceParameters.of(data, equal)));
+        TraceParameterMap other = new TraceParameterMap();
+        other.put("INT", 5);
+        TraceParameterSchema different = new TraceParameterSchema(TraceParameterDefinitionMap.createFrom(other));
+        assertThrows(IllegalArgumentException.class, () -> accessor.get(CompactTraceParameters.of(other.toByteArray(), different)));
+        assertEquals(123456789, accessor.get(CompactTraceParameters.of(data, schema)));
+        assertEquals(123456789, accessor.get(CompactTraceParameters.of(data, equal)));
+    }
+}
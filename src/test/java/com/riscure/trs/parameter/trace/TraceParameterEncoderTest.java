@@ -0,0 +1,111 @@
+package com.riscure.trs.parameter.trace;
+
+import com.riscure.trs.parameter.primitive.StringParameter;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceParameterEncoderTest {
+    private static final int OFFSET = 3;
+
+    private TraceParameterMap source;
+    private TraceParameterEncoder encoder;
+    private ByteBuffer buffer;
+
+    @BeforeEach
+    public void setup() {
+        source = new TraceParameterMap();
+        source.put("INPUT", new byte[]{1, 2, 3, 4});
+        source.put("SHORT", (short) 5);
+        source.put("INTS", new int[]{-6, 7});
+        source.put("FLOAT", 8.5f);
+        source.put("LONG", Long.MIN_VALUE);
+        source.put("DOUBLES", new double[]{Double.NaN, 9});
+        source.put("NAME", "encoderé");
+        source.put("FLAGS", new boolean[]{true, false});
+
+        encoder = new TraceParameterEncoder(TraceParameterDefinitionMap.createFrom(source));
+        buffer = ByteBuffer.allocate(OFFSET + encoder.totalSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private byte[] encoded() {
+        byte[] result = new byte[encoder.totalSize()];
+        buffer.position(OFFSET);
+        buffer.get(result);
+        return result;
+    }
+
+    @Test
+    public void testEncode() {
+        encoder.encode(source, buffer, OFFSET);
+        assertEquals(0, buffer.position());
+        assertArrayEquals(source.toByteArray(), encoded());
+    }
+
+    /**
+     * This test ensures that parameters are written at their defined offsets, not in the order of the map
+     */
+    @Test
+    public void testEncodeInDefinitionOrder() {
+        TraceParameterMap reversed = new TraceParameterMap();
+        String[] keys = source.keySet().toArray(new String[0]);
+        for (int k = keys.length - 1; k >= 0; k--) {
+            reversed.put(keys[k], source.get(keys[k]));
+        }
+        encoder.encode(reversed, buffer, OFFSET);
+        assertArrayEquals(source.toByteArray(), encoded());
+    }
+
+    @Test
+    public void testEncodeLazyMap() {
+        TraceParameterMap lazy = TraceParameterMap.deserialize(source.toByteArray(), TraceParameterDefinitionMap.createFrom(source));
+        encoder.encode(lazy, buffer, OFFSET);
+        assertArrayEquals(source.toByteArray(), encoded());
+    }
+
+    /**
+     * This test ensures that a shorter string is padded with NUL characters, like the strings of added traces
+     */
+    @Test
+    public void testEncodeShorterString() {
+        encoder.encode(source, buffer, OFFSET);
+        encoder.encode("NAME", new StringParameter("enc"), buffer, OFFSET);
+        TraceParameterMap expected = source.copy();
+        expected.put("NAME", "enc\0\0\0\0\0\0");
+        assertArrayEquals(expected.toByteArray(), encoded());
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        TraceParameterMap wrongType = source.copy();
+        wrongType.put("SHORT", 5);
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(wrongType, buffer, OFFSET));
+
+        TraceParameterMap wrongLength = source.copy();
+        wrongLength.put("INTS", new int[]{1, 2, 3});
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(wrongLength, buffer, OFFSET));
+
+        TraceParameterMap longerString = source.copy();
+        longerString.put("NAME", "encoderé!");
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(longerString, buffer, OFFSET));
+
+        encoder.encode(source, buffer, OFFSET);
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode("NAME", new StringParameter("encoderé!"), buffer, OFFSET));
+        assertArrayEquals(source.toByteArray(), encoded());
+
+        TraceParameterMap missing = source.copy();
+        missing.remove("FLOAT");
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(missing, buffer, OFFSET));
+
+        TraceParameterMap undefined = source.copy();
+        undefined.put("UNDEFINED", 1);
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(undefined, buffer, OFFSET));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> encoder.encode(source, buffer, OFFSET + 1));
+    }
+}